@@ -1,20 +1,29 @@
 package ascii_art;
 
+import image.BrightnessPyramid;
 import image.Image;
-import image.ImageBrightnessCalculator;
-import image.ImagePadder;
-import image.ImageSubDivider;
+import image.TileGrid;
+import image_char_matching.CharConverter;
+import image_char_matching.CharMatcherSnapshot;
 import image_char_matching.SubImgCharMatcher;
 
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * This class implements an algorithm to generate ASCII art from an image.
  */
 public class AsciiArtAlgorithm {
 
-    private Image image;
+    private final BrightnessPyramid brightnessPyramid;
     private int resolution;
+    private final double cellAspectRatio;
+    private final MatchMode matchMode;
     private SubImgCharMatcher subImgCharMatcher;
+    private final ForkJoinPool pool;
     private double[][] subImagesBrightness;
+    private BrightnessIndex brightnessIndex;
+    private long[][] subImagesBitmaps;
+    private double[] subImagesContrast;
 
     /**
      * Constructs an AsciiArtAlgorithm object.
@@ -25,42 +34,150 @@ public class AsciiArtAlgorithm {
      * @param subImgCharMatcher The character matcher based on image brightness.
      */
     public AsciiArtAlgorithm(Image image, int resolution, SubImgCharMatcher subImgCharMatcher) {
-        this.image = image;
+        this(new BrightnessPyramid(image), resolution, subImgCharMatcher);
+    }
+
+    /**
+     * Constructs an AsciiArtAlgorithm object over an image's brightness pyramid, so
+     * several resolutions of the same image share one pass over its pixels.
+     *
+     * @param brightnessPyramid The brightness pyramid of the input image.
+     * @param resolution        The resolution of the ASCII art (the number of
+     *                          characters per row).
+     * @param subImgCharMatcher The character matcher based on image brightness.
+     */
+    public AsciiArtAlgorithm(BrightnessPyramid brightnessPyramid, int resolution,
+            SubImgCharMatcher subImgCharMatcher) {
+        this(brightnessPyramid, resolution, subImgCharMatcher, null);
+    }
+
+    /**
+     * Constructs an AsciiArtAlgorithm object that computes the brightness of the image squares
+     * in parallel row bands. The result is identical to the serial one.
+     *
+     * @param brightnessPyramid The brightness pyramid of the input image.
+     * @param resolution        The resolution of the ASCII art (the number of
+     *                          characters per row).
+     * @param subImgCharMatcher The character matcher based on image brightness.
+     * @param pool              The pool the brightness is computed on, or null to compute
+     *                          it serially.
+     */
+    public AsciiArtAlgorithm(BrightnessPyramid brightnessPyramid, int resolution,
+            SubImgCharMatcher subImgCharMatcher, ForkJoinPool pool) {
+        this(brightnessPyramid, resolution, TileGrid.PADDED_SQUARES, subImgCharMatcher, pool);
+    }
+
+    /**
+     * Constructs an AsciiArtAlgorithm object with the given cell layout, computing the brightness
+     * of the image cells in parallel row bands.
+     *
+     * @param brightnessPyramid The brightness pyramid of the input image.
+     * @param resolution        The resolution of the ASCII art (the number of
+     *                          characters per row).
+     * @param cellAspectRatio   The height to width ratio of the cells, or
+     *                          {@link TileGrid#PADDED_SQUARES} for padded squares.
+     * @param subImgCharMatcher The character matcher based on image brightness.
+     * @param pool              The pool the brightness is computed on, or null to compute
+     *                          it serially.
+     */
+    public AsciiArtAlgorithm(BrightnessPyramid brightnessPyramid, int resolution, double cellAspectRatio,
+            SubImgCharMatcher subImgCharMatcher, ForkJoinPool pool) {
+        this(brightnessPyramid, resolution, cellAspectRatio, subImgCharMatcher, pool, MatchMode.BRIGHTNESS);
+    }
+
+    /**
+     * Constructs an AsciiArtAlgorithm object with the given cell layout and matching mode,
+     * computing the brightness of the image cells in parallel row bands.
+     *
+     * @param brightnessPyramid The brightness pyramid of the input image.
+     * @param resolution        The resolution of the ASCII art (the number of
+     *                          characters per row).
+     * @param cellAspectRatio   The height to width ratio of the cells, or
+     *                          {@link TileGrid#PADDED_SQUARES} for padded squares.
+     * @param subImgCharMatcher The character matcher based on image brightness.
+     * @param pool              The pool the brightness is computed on, or null to compute
+     *                          it serially.
+     * @param matchMode         Whether cells are matched by brightness or by shape.
+     */
+    public AsciiArtAlgorithm(BrightnessPyramid brightnessPyramid, int resolution, double cellAspectRatio,
+            SubImgCharMatcher subImgCharMatcher, ForkJoinPool pool, MatchMode matchMode) {
+        this.matchMode = matchMode;
+        this.brightnessPyramid = brightnessPyramid;
         this.subImgCharMatcher = subImgCharMatcher;
         this.resolution = resolution;
+        this.cellAspectRatio = cellAspectRatio;
+        this.pool = pool;
     }
 
     /**
      * Generates ASCII art from the input image.
+     * After the charset of the matcher changes, a run only rewrites the cells whose character
+     * changed, so the returned array is updated in place by later runs and must not be modified.
      *
      * @return A 2D char array representing the ASCII art.
      */
     public char[][] run() {
+        PipelineStats stats = PipelineStats.getInstance();
         if (subImagesBrightness == null) {
-            image = ImagePadder.padImageToNearestPowerOfTwo(image);
-            // we will use Max to not divide by 0 if current image dimensions smaller than target resolution
-            int rows = image.getHeight() / Math.max(1,(image.getHeight() / resolution)); 
-            int cols = image.getWidth() /  Math.max(1,(image.getWidth() / resolution));
-            Image[][] subImages = ImageSubDivider.divideImageToSquares(image,
-                    Math.max(1,(image.getWidth() / resolution)));
-            subImagesBrightness = new double[rows][cols];
+            PipelineStats.Measurement measurement = stats.measure(PipelineStage.BRIGHTNESS);
+            try {
+                subImagesBrightness = brightnessPyramid.getBrightnessGrid(resolution, cellAspectRatio, pool);
+            } finally {
+                measurement.close();
+            }
+        }
+
+        // every cell is matched with the same charset, even if it is edited during the run
+        CharMatcherSnapshot snapshot = subImgCharMatcher.getSnapshot();
+        if (matchMode == MatchMode.SHAPE) {
+            return runShapeMatching(snapshot, stats);
+        }
+        PipelineStats.Measurement measurement = stats.measure(PipelineStage.MATCHING);
+        try {
+            if (brightnessIndex == null) {
+                brightnessIndex = new BrightnessIndex(subImagesBrightness);
+            }
+            return brightnessIndex.match(snapshot);
+        } finally {
+            measurement.close();
+        }
+    }
+
+    // Matches every cell by shape, sampling the cell bitmaps on the first run
+    private char[][] runShapeMatching(CharMatcherSnapshot snapshot, PipelineStats stats) {
+        if (subImagesBitmaps == null) {
+            PipelineStats.Measurement measurement = stats.measure(PipelineStage.BRIGHTNESS);
+            try {
+                sampleBitmaps();
+            } finally {
+                measurement.close();
+            }
+        }
+        PipelineStats.Measurement measurement = stats.measure(PipelineStage.MATCHING);
+        try {
+            int rows = subImagesBrightness.length;
+            int cols = subImagesBrightness[0].length;
+            char[][] asciiData = new char[rows][cols];
             for (int row = 0; row < rows; row++) {
                 for (int col = 0; col < cols; col++) {
-                    subImagesBrightness[row][col] = ImageBrightnessCalculator
-                            .calculateImageBrightness(subImages[row][col]);
+                    int cell = row * cols + col;
+                    asciiData[row][col] = snapshot.getCharByImageShape(
+                            subImagesBrightness[row][col], subImagesBitmaps[cell], subImagesContrast[cell]);
                 }
             }
+            return asciiData;
+        } finally {
+            measurement.close();
         }
+    }
 
-        int rows = image.getHeight() / Math.max(1,(image.getHeight() / resolution)); 
-        int cols = image.getWidth() /  Math.max(1,(image.getWidth() / resolution));
-        char[][] asciiData = new char[rows][cols];
-        for (int row = 0; row < rows; row++) {
-            for (int col = 0; col < cols; col++) {
-                asciiData[row][col] = 
-                    subImgCharMatcher.getCharByImageBrightness(subImagesBrightness[row][col]);
-            }
-        }
-        return asciiData;
+    private void sampleBitmaps() {
+        int cells = subImagesBrightness.length * subImagesBrightness[0].length;
+        int bitmapResolution = CharConverter.DEFAULT_PIXEL_RESOLUTION;
+        int bitmapWords = (bitmapResolution * bitmapResolution + Long.SIZE - 1) / Long.SIZE;
+        subImagesBitmaps = new long[cells][bitmapWords];
+        subImagesContrast = new double[cells];
+        brightnessPyramid.sampleBitmaps(resolution, cellAspectRatio, bitmapResolution, subImagesBitmaps,
+                subImagesContrast, pool);
     }
 }
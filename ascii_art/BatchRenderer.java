@@ -0,0 +1,316 @@
+package ascii_art;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import javax.imageio.ImageIO;
+
+import ascii_output.HtmlAsciiOutput;
+import ascii_output.HtmlColorAsciiOutput;
+import image.Image;
+import image_char_matching.SubImgCharMatcher;
+
+/**
+ * Renders every image of a directory, or every file matching a glob, to its own ASCII art file
+ * without the interactive shell. See ShellConsts.BATCH_USAGE_MSG for the arguments.
+ * Images are decoded and matched on a fixed pool of platform threads, one per core unless
+ * -Dascii_art.batchThreads=<n> says otherwise, and the output files are written on a separate
+ * I/O executor, of virtual threads on runtimes that have them. At most IN_FLIGHT_PER_THREAD
+ * images per compute thread are decoded or waiting to be written at once, so memory stays
+ * bounded however many images there are. All the images are matched with one snapshot of a
+ * shared SubImgCharMatcher.
+ */
+public class BatchRenderer {
+    private static final int IN_FLIGHT_PER_THREAD = 2;
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double BYTES_PER_MEGABYTE = 1024.0 * 1024.0;
+    private static final String HTML_SUFFIX = ".html";
+    private static final String HTML_GZIP_SUFFIX = ".html.gz";
+    private static final String GLOB_SYNTAX = "glob:";
+    private static final String GLOB_CHARS = "*?[{";
+
+    private final List<Path> inputs;
+    private final Path outputDirectory;
+    private final int resolution;
+    private final String format;
+    private final SubImgCharMatcher subImgCharMatcher;
+    private final int computeThreads;
+    private final AtomicInteger rendered;
+    private final LongAdder inputBytes;
+    private final Map<Path, String> failures;
+
+    /**
+     * @param inputs          The image files to render.
+     * @param outputDirectory The directory the output files are written to.
+     * @param resolution      The number of characters per row.
+     * @param charset         The characters to render with.
+     * @param format          One of ShellConsts.OUTPUT_HTML, OUTPUT_HTML_GZIP and OUTPUT_HTML_COLOR.
+     * @param computeThreads  The number of threads images are decoded and matched on.
+     */
+    public BatchRenderer(List<Path> inputs, Path outputDirectory, int resolution, char[] charset,
+            String format, int computeThreads) {
+        this.inputs = inputs;
+        this.outputDirectory = outputDirectory;
+        this.resolution = resolution;
+        this.format = format;
+        this.subImgCharMatcher = new SubImgCharMatcher(charset);
+        this.computeThreads = computeThreads;
+        this.rendered = new AtomicInteger();
+        this.inputBytes = new LongAdder();
+        this.failures = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * Renders all the images and prints a summary of the throughput and the failures.
+     *
+     * @return true if every image was rendered.
+     * @throws InterruptedException if interrupted while waiting for the images.
+     */
+    public boolean run() throws InterruptedException {
+        long start = System.nanoTime();
+        int maxInFlight = computeThreads * IN_FLIGHT_PER_THREAD;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        ExecutorService computePool = Executors.newFixedThreadPool(computeThreads);
+        ExecutorService ioExecutor = newIoExecutor();
+        try {
+            for (Path input : inputs) {
+                inFlight.acquire();
+                CompletableFuture.supplyAsync(() -> render(input), computePool)
+                        .thenAcceptAsync(art -> write(input, art), ioExecutor)
+                        .whenComplete((ignored, e) -> {
+                            if (e == null) {
+                                rendered.incrementAndGet();
+                            } else {
+                                failures.put(input, describe(e));
+                            }
+                            inFlight.release();
+                        });
+            }
+            // every image releases its permit once it is written or has failed
+            inFlight.acquire(maxInFlight);
+        } finally {
+            computePool.shutdown();
+            ioExecutor.shutdown();
+        }
+        printSummary(System.nanoTime() - start);
+        return failures.isEmpty();
+    }
+
+    /**
+     * Runs a batch from the command line, exiting with status 1 if any image failed.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        BatchRenderer renderer;
+        try {
+            renderer = fromArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(ShellConsts.BATCH_USAGE_MSG);
+            System.exit(1);
+            return;
+        }
+        if (!renderer.run()) {
+            System.exit(1);
+        }
+    }
+
+    // Parses the command line arguments, see ShellConsts.BATCH_USAGE_MSG
+    private static BatchRenderer fromArguments(String[] args) throws IllegalArgumentException {
+        if (args.length < 4 || args.length > 5 || args[2].isEmpty()) {
+            throw new IllegalArgumentException(ShellConsts.INVALID_BATCH_ARGUMENTS);
+        }
+        int resolution;
+        try {
+            resolution = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(ShellConsts.INVALID_RESOLUTION_PARAMETERS);
+        }
+        if (resolution < ShellConsts.MINIMUM_RESOLUTION_THRESHOLD) {
+            throw new IllegalArgumentException(ShellConsts.INVALID_RESOLUTION_PARAMETERS);
+        }
+        String format = args[3];
+        if (!format.equals(ShellConsts.OUTPUT_HTML) && !format.equals(ShellConsts.OUTPUT_HTML_GZIP) &&
+                !format.equals(ShellConsts.OUTPUT_HTML_COLOR)) {
+            throw new IllegalArgumentException(ShellConsts.CHANGE_OUTPUT_FAIL_MSG);
+        }
+        List<Path> inputs;
+        try {
+            inputs = findInputs(args[0]);
+        } catch (IOException e) {
+            inputs = Collections.emptyList();
+        }
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException(String.format(ShellConsts.BATCH_NO_INPUTS_MSG, args[0]));
+        }
+        Path outputDirectory = Paths.get(args.length == 5 ? args[4] : ".");
+        try {
+            Files.createDirectories(outputDirectory);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(
+                    String.format(ShellConsts.BATCH_WRITE_FAIL_MSG, outputDirectory));
+        }
+        int computeThreads = Math.max(ShellConsts.MINIMUM_PARALLELISM, Integer.getInteger(
+                ShellConsts.BATCH_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+        return new BatchRenderer(inputs, outputDirectory, resolution, parseCharset(args[2]), format,
+                computeThreads);
+    }
+
+    private static char[] parseCharset(String charset) {
+        if (!charset.equals(ShellConsts.ASCII_MATCHER_MODIFY_ALL)) {
+            return charset.toCharArray();
+        }
+        char[] chars = new char[AsciiConsts.ASCII_ART_LAST_VAL - AsciiConsts.ASCII_ART_FIRST_VAL + 1];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (AsciiConsts.ASCII_ART_FIRST_VAL + i);
+        }
+        return chars;
+    }
+
+    // A directory gives every file ImageIO has a reader for, a glob in the last path element
+    // gives every file it matches, and anything else is taken as a single file.
+    private static List<Path> findInputs(String pattern) throws IOException {
+        List<Path> inputs = new ArrayList<>();
+        Path path = Paths.get(pattern);
+        String fileName = path.getFileName() == null ? "" : path.getFileName().toString();
+        if (fileName.chars().anyMatch(c -> GLOB_CHARS.indexOf(c) >= 0)) {
+            Path directory = path.getParent() == null ? Paths.get(".") : path.getParent();
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher(GLOB_SYNTAX + fileName);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                    file -> Files.isRegularFile(file) && matcher.matches(file.getFileName()))) {
+                files.forEach(inputs::add);
+            }
+        } else if (Files.isDirectory(path)) {
+            Set<String> suffixes = Arrays.stream(ImageIO.getReaderFileSuffixes())
+                    .map(suffix -> suffix.toLowerCase(Locale.ROOT))
+                    .collect(Collectors.toSet());
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(path,
+                    file -> Files.isRegularFile(file) && suffixes.contains(suffixOf(file)))) {
+                files.forEach(inputs::add);
+            }
+        } else if (Files.isRegularFile(path)) {
+            inputs.add(path);
+        }
+        Collections.sort(inputs);
+        return inputs;
+    }
+
+    private static String suffixOf(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    // Decodes and matches a single image, on a compute thread
+    private RenderedArt render(Path input) {
+        try {
+            Image image;
+            PipelineStats.Measurement measurement = PipelineStats.getInstance().measure(PipelineStage.DECODE);
+            try {
+                image = new Image(input.toString(), resolution, Image.DEFAULT_MAX_RASTER_BYTES);
+            } finally {
+                measurement.close();
+            }
+            inputBytes.add(Files.size(input));
+            if (format.equals(ShellConsts.OUTPUT_HTML_COLOR)) {
+                ColorAsciiArtAlgorithm colorAsciiArtAlgo =
+                        new ColorAsciiArtAlgorithm(image, resolution, subImgCharMatcher);
+                char[][] chars = colorAsciiArtAlgo.run();
+                return new RenderedArt(chars, colorAsciiArtAlgo.getSubImagesColors());
+            }
+            return new RenderedArt(new AsciiArtAlgorithm(image, resolution, subImgCharMatcher).run(), null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Writes the art of a single image next to the others, on an I/O thread
+    private void write(Path input, RenderedArt art) {
+        boolean compress = format.equals(ShellConsts.OUTPUT_HTML_GZIP);
+        String outputName = input.getFileName() + (compress ? HTML_GZIP_SUFFIX : HTML_SUFFIX);
+        String outputFile = outputDirectory.resolve(outputName).toString();
+        HtmlAsciiOutput output;
+        PipelineStats.Measurement measurement = PipelineStats.getInstance().measure(PipelineStage.OUTPUT);
+        try {
+            if (art.colors != null) {
+                HtmlColorAsciiOutput colorOutput =
+                        new HtmlColorAsciiOutput(outputFile, ShellConsts.DEFAULT_OUTPUT_FONT);
+                colorOutput.out(art.chars, art.colors);
+                output = colorOutput;
+            } else {
+                output = new HtmlAsciiOutput(outputFile, ShellConsts.DEFAULT_OUTPUT_FONT, compress);
+                output.out(art.chars);
+            }
+        } finally {
+            measurement.close();
+        }
+        if (output.hasFailed()) {
+            throw new IllegalStateException(String.format(ShellConsts.BATCH_WRITE_FAIL_MSG, outputFile));
+        }
+    }
+
+    // Unwraps the exceptions the failure was carried across threads in
+    private static String describe(Throwable e) {
+        Throwable cause = e;
+        while ((cause instanceof CompletionException || cause instanceof UncheckedIOException) &&
+                cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause.getMessage() == null ? cause.toString() : cause.getMessage();
+    }
+
+    private void printSummary(long nanos) {
+        double seconds = nanos / NANOS_PER_SECOND;
+        System.out.println(String.format(ShellConsts.BATCH_SUMMARY_MSG, rendered.get(), inputs.size(),
+                seconds, rendered.get() / seconds, inputBytes.sum() / BYTES_PER_MEGABYTE / seconds));
+        if (!failures.isEmpty()) {
+            System.out.println(String.format(ShellConsts.BATCH_FAILURES_MSG, failures.size()));
+            failures.forEach((input, message) ->
+                    System.out.println(String.format(ShellConsts.BATCH_FAILURE_MSG, input, message)));
+        }
+        System.out.print(PipelineStats.getInstance().format());
+    }
+
+    // Java 21 and later run the writes on virtual threads, older runtimes on platform threads.
+    // The in-flight bound keeps the number of pending writes, and so of threads, bounded.
+    private static ExecutorService newIoExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // The chars of a rendered image, and their colors for color output
+    private static final class RenderedArt {
+        private final char[][] chars;
+        private final int[][] colors;
+
+        private RenderedArt(char[][] chars, int[][] colors) {
+            this.chars = chars;
+            this.colors = colors;
+        }
+    }
+}
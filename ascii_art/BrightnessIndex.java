@@ -0,0 +1,93 @@
+package ascii_art;
+
+import image_char_matching.CharMatcherSnapshot;
+
+import java.util.Arrays;
+
+/**
+ * An index of the cells of a brightness grid by their brightness value, and the ASCII art
+ * matched from it.
+ * Every distinct brightness value is matched to a character once, and its cells are kept
+ * together, so after a change of the charset only the values whose character changed are
+ * written again, each to exactly its own cells.
+ */
+class BrightnessIndex {
+    private final int cols;
+    private final double[] levels;
+    private final int[] levelStarts;
+    private final int[] levelCells;
+    private final char[] levelChars;
+    private final char[][] asciiData;
+    private CharMatcherSnapshot matchedSnapshot;
+
+    /**
+     * Indexes the cells of a brightness grid.
+     *
+     * @param brightness The brightness of every cell, indexed by row then column.
+     */
+    BrightnessIndex(double[][] brightness) {
+        int rows = brightness.length;
+        cols = brightness[0].length;
+        double[] sorted = new double[rows * cols];
+        for (int row = 0; row < rows; row++) {
+            System.arraycopy(brightness[row], 0, sorted, row * cols, cols);
+        }
+        Arrays.sort(sorted);
+        int levelCount = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || Double.compare(sorted[i], sorted[levelCount - 1]) != 0) {
+                sorted[levelCount++] = sorted[i];
+            }
+        }
+        levels = Arrays.copyOf(sorted, levelCount);
+
+        // counting sort of the cells by level, so every level's cells are contiguous
+        int[] cellLevels = new int[rows * cols];
+        levelStarts = new int[levelCount + 1];
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                int level = Arrays.binarySearch(levels, brightness[row][col]);
+                cellLevels[row * cols + col] = level;
+                levelStarts[level + 1]++;
+            }
+        }
+        for (int level = 0; level < levelCount; level++) {
+            levelStarts[level + 1] += levelStarts[level];
+        }
+        levelCells = new int[rows * cols];
+        int[] nextCell = Arrays.copyOf(levelStarts, levelCount);
+        for (int cell = 0; cell < cellLevels.length; cell++) {
+            levelCells[nextCell[cellLevels[cell]]++] = cell;
+        }
+
+        levelChars = new char[levelCount];
+        asciiData = new char[rows][cols];
+    }
+
+    /**
+     * Returns the ASCII art of the grid for the given charset. Only the cells whose character
+     * changed since the last call are written, and nothing is when the snapshot is the same.
+     * The returned array is updated in place by later calls and must not be modified.
+     *
+     * @param snapshot The compiled charset to match with.
+     * @return A 2D char array representing the ASCII art.
+     */
+    char[][] match(CharMatcherSnapshot snapshot) {
+        if (snapshot == matchedSnapshot) {
+            return asciiData;
+        }
+        boolean firstMatch = matchedSnapshot == null;
+        for (int level = 0; level < levels.length; level++) {
+            char levelChar = snapshot.getCharByImageBrightness(levels[level]);
+            if (firstMatch || levelChar != levelChars[level]) {
+                levelChars[level] = levelChar;
+                for (int i = levelStarts[level]; i < levelStarts[level + 1]; i++) {
+                    int cell = levelCells[i];
+                    asciiData[cell / cols][cell % cols] = levelChar;
+                }
+            }
+        }
+        matchedSnapshot = snapshot;
+        return asciiData;
+    }
+}
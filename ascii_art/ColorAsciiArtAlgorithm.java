@@ -0,0 +1,104 @@
+package ascii_art;
+
+import image.Image;
+import image.ImageBrightnessCalculator;
+import image.TileGrid;
+import image_char_matching.SubImgCharMatcher;
+
+/**
+ * This class generates the same ASCII art as {@link AsciiArtAlgorithm}, along with the average
+ * color of the square behind every character. Brightness and color are accumulated together in
+ * a single pass over the pixels.
+ */
+public class ColorAsciiArtAlgorithm {
+
+    private final Image image;
+    private final int resolution;
+    private final double cellAspectRatio;
+    private final SubImgCharMatcher subImgCharMatcher;
+    private double[][] subImagesBrightness;
+    private BrightnessIndex brightnessIndex;
+    private int[][] subImagesColors;
+
+    /**
+     * Constructs a ColorAsciiArtAlgorithm object.
+     *
+     * @param image             The input image for generating ASCII art.
+     * @param resolution        The resolution of the ASCII art (the number of
+     *                          characters per row).
+     * @param subImgCharMatcher The character matcher based on image brightness.
+     */
+    public ColorAsciiArtAlgorithm(Image image, int resolution, SubImgCharMatcher subImgCharMatcher) {
+        this(image, resolution, TileGrid.PADDED_SQUARES, subImgCharMatcher);
+    }
+
+    /**
+     * Constructs a ColorAsciiArtAlgorithm object with the given cell layout.
+     *
+     * @param image             The input image for generating ASCII art.
+     * @param resolution        The resolution of the ASCII art (the number of
+     *                          characters per row).
+     * @param cellAspectRatio   The height to width ratio of the cells, or
+     *                          {@link TileGrid#PADDED_SQUARES} for padded squares.
+     * @param subImgCharMatcher The character matcher based on image brightness.
+     */
+    public ColorAsciiArtAlgorithm(Image image, int resolution, double cellAspectRatio,
+            SubImgCharMatcher subImgCharMatcher) {
+        this.image = image;
+        this.resolution = resolution;
+        this.cellAspectRatio = cellAspectRatio;
+        this.subImgCharMatcher = subImgCharMatcher;
+    }
+
+    /**
+     * Generates ASCII art from the input image.
+     * After the charset of the matcher changes, a run only rewrites the cells whose character
+     * changed, so the returned array is updated in place by later runs and must not be modified.
+     *
+     * @return A 2D char array representing the ASCII art.
+     */
+    public char[][] run() {
+        computeColors();
+        PipelineStats.Measurement measurement = PipelineStats.getInstance().measure(PipelineStage.MATCHING);
+        try {
+            if (brightnessIndex == null) {
+                brightnessIndex = new BrightnessIndex(subImagesBrightness);
+            }
+            return brightnessIndex.match(subImgCharMatcher.getSnapshot());
+        } finally {
+            measurement.close();
+        }
+    }
+
+    /**
+     * Computes the average color of the square behind every character without matching any
+     * characters, for callers that match them another way. The colors are computed on the first
+     * call only, together with the brightness a later run matches.
+     *
+     * @return The colors, as {@link #getSubImagesColors()} returns them.
+     */
+    public int[][] computeColors() {
+        if (subImagesColors == null) {
+            PipelineStats.Measurement measurement = PipelineStats.getInstance().measure(PipelineStage.BRIGHTNESS);
+            try {
+                TileGrid grid = new TileGrid(image.getWidth(), image.getHeight(), resolution,
+                        cellAspectRatio);
+                subImagesBrightness = new double[grid.getRows()][grid.getCols()];
+                subImagesColors = new int[grid.getRows()][grid.getCols()];
+                ImageBrightnessCalculator.calculateSquaresBrightnessAndColor(image, grid,
+                        subImagesBrightness, subImagesColors);
+            } finally {
+                measurement.close();
+            }
+        }
+        return subImagesColors;
+    }
+
+    /**
+     * Returns the average color of the square behind every character of the last run, as packed
+     * 0xRRGGBB ints indexed by row then column.
+     */
+    public int[][] getSubImagesColors() {
+        return subImagesColors;
+    }
+}
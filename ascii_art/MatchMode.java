@@ -0,0 +1,11 @@
+package ascii_art;
+
+/**
+ * How the image squares are matched to characters.
+ */
+public enum MatchMode {
+    /** By the brightness of the square alone */
+    BRIGHTNESS,
+    /** By the shape of the square, among the characters of about its brightness */
+    SHAPE
+}
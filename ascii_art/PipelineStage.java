@@ -0,0 +1,15 @@
+package ascii_art;
+
+/**
+ * The stages of the ASCII art pipeline that are measured by {@link PipelineStats}.
+ */
+public enum PipelineStage {
+    /** Decoding the input image, or the stripes of it when streaming */
+    DECODE,
+    /** Laying out the image squares and computing their brightness */
+    BRIGHTNESS,
+    /** Matching the square brightness values to characters */
+    MATCHING,
+    /** Writing the ASCII art to the output */
+    OUTPUT
+}
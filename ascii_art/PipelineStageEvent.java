@@ -0,0 +1,26 @@
+package ascii_art;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JFR event recorded for every measured pipeline stage, so stage timings can be lined up with
+ * GC activity in a flight recording. Recorded with the default settings of a recording, e.g.
+ * java -XX:StartFlightRecording=filename=ascii_art.jfr ascii_art.Shell
+ */
+@Name("ascii_art.PipelineStage")
+@Label("Pipeline Stage")
+@Category("ASCII Art")
+@Description("A stage of the ASCII art pipeline")
+class PipelineStageEvent extends jdk.jfr.Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Allocated")
+    @Description("Bytes allocated by the thread running the stage")
+    @DataAmount
+    long allocatedBytes;
+}
@@ -0,0 +1,187 @@
+package ascii_art;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of how often each pipeline stage ran, how long it took and how many bytes it
+ * allocated. A stage is measured with
+ * <pre>
+ *     PipelineStats.Measurement measurement = PipelineStats.getInstance().measure(PipelineStage.X);
+ *     try {
+ *         ...
+ *     } finally {
+ *         measurement.close();
+ *     }
+ * </pre>
+ * which also records a {@link PipelineStageEvent} for flight recordings. Work that a stage does
+ * in many small steps, such as row by row, is measured as one call by pausing the measurement
+ * between the steps.
+ * Allocations are counted on the thread running the stage only, so work a stage hands to a
+ * ForkJoinPool is timed but its allocations are not counted. The counters are thread safe.
+ */
+public class PipelineStats {
+    private static final PipelineStats INSTANCE = new PipelineStats();
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+    private static final double BYTES_PER_MEGABYTE = 1024.0 * 1024.0;
+    private static final String HEADER_FORMAT = "%-12s %8s %12s %10s %10s %14s%n";
+    private static final String ROW_FORMAT = "%-12s %8d %12.3f %10.3f %10.3f %14.3f%n";
+
+    private final LongAdder[] calls;
+    private final LongAdder[] totalNanos;
+    private final AtomicLong[] maxNanos;
+    private final LongAdder[] allocatedBytes;
+    private final com.sun.management.ThreadMXBean allocationBean;
+
+    private PipelineStats() {
+        int stages = PipelineStage.values().length;
+        calls = new LongAdder[stages];
+        totalNanos = new LongAdder[stages];
+        maxNanos = new AtomicLong[stages];
+        allocatedBytes = new LongAdder[stages];
+        for (int i = 0; i < stages; i++) {
+            calls[i] = new LongAdder();
+            totalNanos[i] = new LongAdder();
+            maxNanos[i] = new AtomicLong();
+            allocatedBytes[i] = new LongAdder();
+        }
+        allocationBean = findAllocationBean();
+    }
+
+    /**
+     * Returns the stats shared by the whole program.
+     */
+    public static PipelineStats getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts measuring a stage on the current thread. The measurement ends when it is closed.
+     *
+     * @param stage The stage being measured.
+     * @return The running measurement.
+     */
+    public Measurement measure(PipelineStage stage) {
+        return new Measurement(stage);
+    }
+
+    /**
+     * Clears all the counters.
+     */
+    public void reset() {
+        for (int i = 0; i < calls.length; i++) {
+            calls[i].reset();
+            totalNanos[i].reset();
+            maxNanos[i].set(0);
+            allocatedBytes[i].reset();
+        }
+    }
+
+    /**
+     * Formats the counters as a table with a row per stage.
+     */
+    public String format() {
+        StringBuilder table = new StringBuilder();
+        table.append(String.format(HEADER_FORMAT,
+                "stage", "calls", "total ms", "mean ms", "max ms", "allocated MB"));
+        for (PipelineStage stage : PipelineStage.values()) {
+            int i = stage.ordinal();
+            long stageCalls = calls[i].sum();
+            double totalMillis = (double) totalNanos[i].sum() / NANOS_PER_MILLI;
+            table.append(String.format(ROW_FORMAT,
+                    stage.name().toLowerCase(),
+                    stageCalls,
+                    totalMillis,
+                    stageCalls == 0 ? 0.0 : totalMillis / stageCalls,
+                    (double) maxNanos[i].get() / NANOS_PER_MILLI,
+                    allocatedBytes[i].sum() / BYTES_PER_MEGABYTE));
+        }
+        if (allocationBean == null) {
+            table.append("(allocation counting is not supported by this JVM)").append(System.lineSeparator());
+        }
+        return table.toString();
+    }
+
+    // Bytes allocated so far by the current thread, or 0 when the JVM cannot tell
+    private long currentThreadAllocatedBytes() {
+        return allocationBean == null ? 0 : allocationBean.getCurrentThreadAllocatedBytes();
+    }
+
+    private void record(PipelineStage stage, long nanos, long bytes) {
+        int i = stage.ordinal();
+        calls[i].increment();
+        totalNanos[i].add(nanos);
+        maxNanos[i].accumulateAndGet(nanos, Math::max);
+        allocatedBytes[i].add(bytes);
+    }
+
+    private static com.sun.management.ThreadMXBean findAllocationBean() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        if (!allocationBean.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+        return allocationBean;
+    }
+
+    /**
+     * A running measurement of a single stage, recorded as one call when it is closed.
+     */
+    public final class Measurement implements AutoCloseable {
+        private final PipelineStage stage;
+        private final PipelineStageEvent event;
+        private long startNanos;
+        private long startAllocatedBytes;
+        private long nanos;
+        private long bytes;
+        private boolean paused;
+
+        private Measurement(PipelineStage stage) {
+            this.stage = stage;
+            event = new PipelineStageEvent();
+            event.begin();
+            resume();
+        }
+
+        /**
+         * Stops counting time and allocations until {@link #resume()} is called.
+         */
+        public void pause() {
+            if (!paused) {
+                nanos += System.nanoTime() - startNanos;
+                bytes += currentThreadAllocatedBytes() - startAllocatedBytes;
+                paused = true;
+            }
+        }
+
+        /**
+         * Counts time and allocations again after {@link #pause()}.
+         */
+        public void resume() {
+            startAllocatedBytes = currentThreadAllocatedBytes();
+            startNanos = System.nanoTime();
+            paused = false;
+        }
+
+        /**
+         * Ends the measurement and records it.
+         */
+        @Override
+        public void close() {
+            pause();
+            record(stage, nanos, bytes);
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = stage.name().toLowerCase();
+                event.allocatedBytes = bytes;
+                event.commit();
+            }
+        }
+    }
+}
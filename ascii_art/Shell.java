@@ -1,13 +1,27 @@
 package ascii_art;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Logger;
 
+import ascii_output.AnsiColorAsciiOutput;
 import ascii_output.AsciiOutput;
+import ascii_output.ColorAsciiOutput;
 import ascii_output.ConsoleAsciiOutput;
 import ascii_output.HtmlAsciiOutput;
+import ascii_output.HtmlColorAsciiOutput;
+import image.BrightnessPyramid;
 import image.Image;
+import image.ImageStripeReader;
+import image.RasterCache;
+import image.TileGrid;
+import image_char_matching.GlyphCache;
 import image_char_matching.SubImgCharMatcher;
 
 /**
@@ -18,16 +32,44 @@ import image_char_matching.SubImgCharMatcher;
 public class Shell {
     private SubImgCharMatcher subImgCharMatcher;
     private int resolution;
+    private double cellAspectRatio;
+    private MatchMode matchMode;
+    private int parallelism;
+    private ForkJoinPool pool;
     private Image image;
+    private String imagePath;
+    private final Map<Image, BrightnessPyramid> brightnessPyramids;
     private AsciiOutput asciiOutput;
     private AsciiArtAlgorithm asciiArtAlgo;
+    private ColorAsciiArtAlgorithm colorAsciiArtAlgo;
     private Image prevAlgoRunImage;
     private int prevAlgoRunResolution;
+    private final Path glyphCacheFile;
+    private final long maxRasterBytes;
+    private final RasterCache rasterCache;
+    private final long offHeapRasterBytes;
+    private boolean grayscale;
 
     /** Constructor initializes default values */
     public Shell() {
+        String glyphCacheFileName = System.getProperty(ShellConsts.GLYPH_CACHE_FILE_PROPERTY);
+        glyphCacheFile = glyphCacheFileName == null ? null : Paths.get(glyphCacheFileName);
+        loadGlyphCache();
+        maxRasterBytes = Long.getLong(ShellConsts.MAX_RASTER_BYTES_PROPERTY, Image.DEFAULT_MAX_RASTER_BYTES);
+        rasterCache = createRasterCache();
+        offHeapRasterBytes = Long.getLong(ShellConsts.OFF_HEAP_RASTER_BYTES_PROPERTY,
+                ShellConsts.DEFAULT_OFF_HEAP_RASTER_BYTES);
         subImgCharMatcher = new SubImgCharMatcher(AsciiConsts.DEFAULT_CHAR_SET);
         resolution = AsciiConsts.DEFAULT_RESOLUTION;
+        cellAspectRatio = TileGrid.PADDED_SQUARES;
+        matchMode = MatchMode.BRIGHTNESS;
+        setParallelism(ShellConsts.DEFAULT_PARALLELISM);
+        brightnessPyramids = new LinkedHashMap<>(ShellConsts.BRIGHTNESS_CACHE_CAPACITY, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Image, BrightnessPyramid> eldest) {
+                return size() > ShellConsts.BRIGHTNESS_CACHE_CAPACITY;
+            }
+        };
         changeImage(ShellConsts.DEFAULT_IMAGE_PATH);
         asciiOutput = new ConsoleAsciiOutput();
     }
@@ -44,6 +86,8 @@ public class Shell {
             try {
                 switch (operation) {
                     case ShellConsts.EXIT_PROGRAM:
+                        setParallelism(ShellConsts.MINIMUM_PARALLELISM);
+                        saveGlyphCache();
                         return;
                     case ShellConsts.PRINT_ASCII_CHARS:
                         printAsciiCharSet();
@@ -64,6 +108,24 @@ public class Shell {
                     case ShellConsts.RUN_ASCII_ART_ALGO:
                         runAsciiArtAlgo();
                         break;
+                    case ShellConsts.RUN_ASCII_ART_STREAM:
+                        runStreamingAsciiArtAlgo(extractParametersFromCommand(commands));
+                        break;
+                    case ShellConsts.MODIFY_PARALLELISM:
+                        modifyParallelism(extractParametersFromCommand(commands));
+                        break;
+                    case ShellConsts.MODIFY_CELLS:
+                        modifyCells(extractParametersFromCommand(commands));
+                        break;
+                    case ShellConsts.MODIFY_MATCHING:
+                        modifyMatching(extractParametersFromCommand(commands));
+                        break;
+                    case ShellConsts.MODIFY_PIXELS:
+                        modifyPixels(extractParametersFromCommand(commands));
+                        break;
+                    case ShellConsts.PRINT_STATS:
+                        printStats(extractParametersFromCommand(commands));
+                        break;
                     default:
                         System.out.println(ShellConsts.INVALID_COMMAND_MSG);
                         break;
@@ -79,13 +141,86 @@ public class Shell {
         if (subImgCharMatcher.getCharSet().isEmpty()) {
             throw new IllegalArgumentException(ShellConsts.RUN_ALGO_FAIL_MSG);
         }
-        if (image != prevAlgoRunImage || resolution != prevAlgoRunResolution)
-            asciiArtAlgo = new AsciiArtAlgorithm(image, resolution, subImgCharMatcher);
-        asciiOutput.out(asciiArtAlgo.run());
+        if (image != prevAlgoRunImage || resolution != prevAlgoRunResolution) {
+            BrightnessPyramid brightnessPyramid = brightnessPyramids.computeIfAbsent(image,
+                    BrightnessPyramid::new);
+            asciiArtAlgo = new AsciiArtAlgorithm(brightnessPyramid, resolution, cellAspectRatio,
+                    subImgCharMatcher, pool, matchMode);
+            colorAsciiArtAlgo = new ColorAsciiArtAlgorithm(image, resolution, cellAspectRatio,
+                    subImgCharMatcher);
+        }
+        if (asciiOutput instanceof ColorAsciiOutput) {
+            char[][] asciiData;
+            int[][] colors;
+            if (matchMode == MatchMode.SHAPE) {
+                // the colors come from the color algorithm, the characters from shape matching
+                colors = colorAsciiArtAlgo.computeColors();
+                asciiData = asciiArtAlgo.run();
+            } else {
+                asciiData = colorAsciiArtAlgo.run();
+                colors = colorAsciiArtAlgo.getSubImagesColors();
+            }
+            PipelineStats.Measurement measurement = PipelineStats.getInstance().measure(PipelineStage.OUTPUT);
+            try {
+                ((ColorAsciiOutput) asciiOutput).out(asciiData, colors);
+            } finally {
+                measurement.close();
+            }
+        } else {
+            char[][] asciiData = asciiArtAlgo.run();
+            PipelineStats.Measurement measurement = PipelineStats.getInstance().measure(PipelineStage.OUTPUT);
+            try {
+                asciiOutput.out(asciiData);
+            } finally {
+                measurement.close();
+            }
+        }
         prevAlgoRunImage = image;
         prevAlgoRunResolution = resolution;
     }
 
+    // Method to render an image row by row, each row written as soon as it is matched. Without
+    // parameters the current image is rendered; a file name streams that file instead.
+    private void runStreamingAsciiArtAlgo(String parameters) throws IllegalArgumentException {
+        if (subImgCharMatcher.getCharSet().isEmpty()) {
+            throw new IllegalArgumentException(ShellConsts.RUN_ALGO_FAIL_MSG);
+        }
+        if (!parameters.isEmpty()) {
+            streamImageFile(parameters);
+            return;
+        }
+        if (image == null) {
+            System.out.println(ShellConsts.CHANGE_IMAGE_FAIL_MSG);
+            return;
+        }
+        if (image.getSubsampling() > 1) {
+            // the raster ceiling subsampled the decoded image, the file is read at full resolution
+            streamImageFile(imagePath);
+            return;
+        }
+        try {
+            new StreamingAsciiArtAlgorithm(image, resolution, cellAspectRatio, subImgCharMatcher)
+                    .run(asciiOutput);
+        } catch (IOException e) {
+            System.out.println(ShellConsts.CHANGE_IMAGE_FAIL_MSG);
+        }
+    }
+
+    // Method to render an image file straight from the file, one stripe at a time, so its whole
+    // raster is never held
+    private void streamImageFile(String filename) {
+        try (ImageStripeReader reader = new ImageStripeReader(filename)) {
+            if (resolution > reader.getWidth()) {
+                System.out.println(ShellConsts.RESOLUTION_EXCEED_BOUNDRAIES_MSG);
+                return;
+            }
+            new StreamingAsciiArtAlgorithm(reader, resolution, cellAspectRatio, subImgCharMatcher)
+                    .run(asciiOutput);
+        } catch (IOException e) {
+            System.out.println(ShellConsts.CHANGE_IMAGE_FAIL_MSG);
+        }
+    }
+
     // Method to change the output format
     private void changeOutput(String parameters) throws IllegalArgumentException {
         switch (parameters) {
@@ -93,20 +228,52 @@ public class Shell {
                 asciiOutput = new HtmlAsciiOutput(ShellConsts.DEFAULT_OUTPUT_FILENAME,
                                                   ShellConsts.DEFAULT_OUTPUT_FONT);
                 break;
+            case ShellConsts.OUTPUT_HTML_GZIP:
+                asciiOutput = new HtmlAsciiOutput(ShellConsts.DEFAULT_COMPRESSED_OUTPUT_FILENAME,
+                                                  ShellConsts.DEFAULT_OUTPUT_FONT, true);
+                break;
+            case ShellConsts.OUTPUT_HTML_COLOR:
+                asciiOutput = new HtmlColorAsciiOutput(ShellConsts.DEFAULT_OUTPUT_FILENAME,
+                                                       ShellConsts.DEFAULT_OUTPUT_FONT);
+                break;
             case ShellConsts.OUTPUT_CONSOLE:
                 asciiOutput = new ConsoleAsciiOutput();
                 break;
+            case ShellConsts.OUTPUT_CONSOLE_COLOR:
+                asciiOutput = new AnsiColorAsciiOutput();
+                break;
+            case ShellConsts.OUTPUT_CONSOLE_LIVE:
+                asciiOutput = new ConsoleAsciiOutput(true);
+                break;
             default:
                 throw new IllegalArgumentException(ShellConsts.CHANGE_OUTPUT_FAIL_MSG);
         }
+        // fitted cells take the shape of the new output's cells, which needs a new algorithm
+        if (cellAspectRatio != TileGrid.PADDED_SQUARES &&
+                cellAspectRatio != asciiOutput.getCellAspectRatio()) {
+            cellAspectRatio = asciiOutput.getCellAspectRatio();
+            prevAlgoRunImage = null;
+        }
     }
 
     // Method to change the input image
     private void changeImage(String imagePath) {
+        PipelineStats.Measurement measurement = PipelineStats.getInstance().measure(PipelineStage.DECODE);
         try {
-            image = new Image(imagePath);
+            Image previousImage = image;
+            image = rasterCache == null
+                    ? new Image(imagePath, 0, maxRasterBytes, grayscale, offHeapRasterBytes)
+                    : rasterCache.load(imagePath, 0, maxRasterBytes, grayscale, offHeapRasterBytes);
+            this.imagePath = imagePath;
+            if (previousImage != null) {
+                // nothing refers to the replaced image anymore, so an off-heap raster is freed now
+                brightnessPyramids.remove(previousImage);
+                previousImage.release();
+            }
         } catch (IOException e) {
             System.out.println(ShellConsts.CHANGE_IMAGE_FAIL_MSG);
+        } finally {
+            measurement.close();
         }
     }
 
@@ -136,6 +303,121 @@ public class Shell {
         }
     }
 
+    // Method to switch between padded square cells and cells fitted to the output's cell shape
+    private void modifyCells(String parameters) throws IllegalArgumentException {
+        switch (parameters) {
+            case ShellConsts.CELLS_SQUARE:
+                cellAspectRatio = TileGrid.PADDED_SQUARES;
+                break;
+            case ShellConsts.CELLS_FIT:
+                cellAspectRatio = asciiOutput.getCellAspectRatio();
+                break;
+            default:
+                throw new IllegalArgumentException(ShellConsts.INVALID_CELLS_PARAMETERS);
+        }
+        // the algorithm holds the cell layout, so the next run creates a new one
+        prevAlgoRunImage = null;
+        System.out.println(String.format(ShellConsts.CELLS_CHANGE_MSG, parameters));
+    }
+
+    // Method to switch between matching the image squares by brightness and by shape
+    private void modifyMatching(String parameters) throws IllegalArgumentException {
+        switch (parameters) {
+            case ShellConsts.MATCHING_BRIGHTNESS:
+                matchMode = MatchMode.BRIGHTNESS;
+                break;
+            case ShellConsts.MATCHING_SHAPE:
+                matchMode = MatchMode.SHAPE;
+                break;
+            default:
+                throw new IllegalArgumentException(ShellConsts.INVALID_MATCHING_PARAMETERS);
+        }
+        // the algorithm holds the matching mode, so the next run creates a new one
+        prevAlgoRunImage = null;
+        System.out.println(String.format(ShellConsts.MATCHING_CHANGE_MSG, parameters));
+    }
+
+    // Method to switch between storing the image as luminance levels and as packed ARGB pixels
+    private void modifyPixels(String parameters) throws IllegalArgumentException {
+        switch (parameters) {
+            case ShellConsts.PIXELS_GRAY:
+                grayscale = true;
+                break;
+            case ShellConsts.PIXELS_RGB:
+                grayscale = false;
+                break;
+            default:
+                throw new IllegalArgumentException(ShellConsts.INVALID_PIXELS_PARAMETERS);
+        }
+        // the pixels are converted once at decode time, so the current image is decoded again
+        if (imagePath != null) {
+            changeImage(imagePath);
+        }
+        System.out.println(String.format(ShellConsts.PIXELS_CHANGE_MSG, parameters));
+    }
+
+    // Method to modify the number of threads the algorithm runs on
+    private void modifyParallelism(String parameters) throws IllegalArgumentException {
+        int newParallelism;
+        try {
+            newParallelism = Integer.parseInt(parameters);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(ShellConsts.INVALID_PARALLELISM_PARAMETERS);
+        }
+        if (newParallelism < ShellConsts.MINIMUM_PARALLELISM) {
+            throw new IllegalArgumentException(ShellConsts.INVALID_PARALLELISM_PARAMETERS);
+        }
+        setParallelism(newParallelism);
+        System.out.println(String.format(ShellConsts.PARALLELISM_CHANGE_MSG, parallelism));
+    }
+
+    // Method to replace the pool the algorithm runs on, a parallelism of 1 runs serially
+    private void setParallelism(int newParallelism) {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        parallelism = newParallelism;
+        pool = parallelism > ShellConsts.MINIMUM_PARALLELISM ? new ForkJoinPool(parallelism) : null;
+        // the algorithm holds the pool, so the next run creates a new one
+        prevAlgoRunImage = null;
+    }
+
+    // Method to open the decoded raster cache, if one is configured
+    private RasterCache createRasterCache() {
+        String directory = System.getProperty(ShellConsts.RASTER_CACHE_DIR_PROPERTY);
+        if (directory == null)
+            return null;
+        try {
+            return new RasterCache(Paths.get(directory), Long.getLong(
+                    ShellConsts.RASTER_CACHE_BYTES_PROPERTY, ShellConsts.DEFAULT_RASTER_CACHE_BYTES));
+        } catch (IOException e) {
+            Logger.getGlobal().warning(String.format(ShellConsts.RASTER_CACHE_OPEN_FAIL_MSG, directory));
+            return null;
+        }
+    }
+
+    // Method to load the glyph cache file, if one is configured
+    private void loadGlyphCache() {
+        if (glyphCacheFile == null)
+            return;
+        try {
+            GlyphCache.getInstance().load(glyphCacheFile);
+        } catch (IOException e) {
+            Logger.getGlobal().warning(String.format(ShellConsts.GLYPH_CACHE_LOAD_FAIL_MSG, glyphCacheFile));
+        }
+    }
+
+    // Method to save newly rendered glyphs to the glyph cache file, if one is configured
+    private void saveGlyphCache() {
+        if (glyphCacheFile == null || !GlyphCache.getInstance().isModified())
+            return;
+        try {
+            GlyphCache.getInstance().save(glyphCacheFile);
+        } catch (IOException e) {
+            Logger.getGlobal().warning(String.format(ShellConsts.GLYPH_CACHE_SAVE_FAIL_MSG, glyphCacheFile));
+        }
+    }
+
     // Method to add or remove characters from the ASCII matcher
     private void modifyAsciiMatcher(String operation, String parameters) {
         int startInd = 0, endInd = -1;
@@ -167,6 +449,15 @@ public class Shell {
             return;
         }
 
+        if (operation.equals(ShellConsts.ADD_CHAR_TO_ASCII_MATCHER) && startInd <= endInd) {
+            char[] chars = new char[endInd - startInd + 1];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) (startInd + i);
+            }
+            subImgCharMatcher.addChars(chars);
+            return;
+        }
+
         while (startInd <= endInd) {
             modifyAsciiMatcherCharacter(operation, (char) startInd++);
         }
@@ -189,6 +480,20 @@ public class Shell {
             throw new IllegalArgumentException(ShellConsts.INVALID_REMOVE_PARAMETERS_MSG);
     }
 
+    // Method to print the per stage timing and allocation stats, or reset them
+    private void printStats(String parameters) throws IllegalArgumentException {
+        switch (parameters) {
+            case "":
+                System.out.print(PipelineStats.getInstance().format());
+                break;
+            case ShellConsts.STATS_RESET:
+                PipelineStats.getInstance().reset();
+                break;
+            default:
+                throw new IllegalArgumentException(ShellConsts.INVALID_STATS_PARAMETERS);
+        }
+    }
+
     // Method to print the current ASCII character set
     private void printAsciiCharSet() {
         for (Character c : subImgCharMatcher.getCharSet()) {
@@ -28,6 +28,40 @@ public class ShellConsts {
     public final static String CHANGE_OUTPUT = "output";
     /** Command: Run ASCII art algorithm */
     public final static String RUN_ASCII_ART_ALGO = "asciiArt";
+    /** Command: Run ASCII art algorithm row by row, optionally straight from an image file */
+    public final static String RUN_ASCII_ART_STREAM = "asciiArtStream";
+    /** Command: Modify the number of threads the algorithm runs on */
+    public final static String MODIFY_PARALLELISM = "parallelism";
+    /** Command: Modify the layout of the image cells */
+    public final static String MODIFY_CELLS = "cells";
+    /** Command: Modify how the image squares are matched to characters */
+    public final static String MODIFY_MATCHING = "match";
+    /** Command: Modify how the image pixels are stored */
+    public final static String MODIFY_PIXELS = "pixels";
+    /** Command: Print the per stage timing and allocation stats */
+    public final static String PRINT_STATS = "stats";
+
+    // cells command modifiers
+    /** Cells modifier: Squares of the image padded to power of two dimensions */
+    public final static String CELLS_SQUARE = "square";
+    /** Cells modifier: Cells fitted to the image at the aspect ratio of the output's cells */
+    public final static String CELLS_FIT = "fit";
+
+    // match command modifiers
+    /** Match modifier: Match the image squares by brightness */
+    public final static String MATCHING_BRIGHTNESS = "brightness";
+    /** Match modifier: Match the image squares by shape */
+    public final static String MATCHING_SHAPE = "shape";
+
+    // pixels command modifiers
+    /** Pixels modifier: Store an 8 bit luminance level per pixel */
+    public final static String PIXELS_GRAY = "gray";
+    /** Pixels modifier: Store a packed ARGB int per pixel */
+    public final static String PIXELS_RGB = "rgb";
+
+    // stats command modifiers
+    /** Stats modifier: Clear the stats */
+    public final static String STATS_RESET = "reset";
 
     // chars command
     /** The format for chars operation prints */
@@ -51,20 +85,66 @@ public class ShellConsts {
     /** Resolution modifier:  the minimum resolution*/
     public static final int MINIMUM_RESOLUTION_THRESHOLD = 1;
 
+    // Parallelism modification
+    /** Parallelism modifier: the default number of threads, 1 runs serially */
+    public static final int DEFAULT_PARALLELISM = 1;
+    /** Parallelism modifier: the minimum number of threads */
+    public static final int MINIMUM_PARALLELISM = 1;
+
 
     // Output options
     /** Output option: Output as HTML */
     public final static String OUTPUT_HTML = "html";
+    /** Output option: Output as gzip compressed HTML */
+    public final static String OUTPUT_HTML_GZIP = "htmlgz";
     /** Output option: Output to console */
     public final static String OUTPUT_CONSOLE = "console";
+    /** Output option: Output as HTML, each char in the color of its part of the image */
+    public final static String OUTPUT_HTML_COLOR = "htmlcolor";
+    /** Output option: Output to console, each char in 24 bit ANSI color */
+    public final static String OUTPUT_CONSOLE_COLOR = "ansi";
+    /** Output option: Output to console, redrawing only the changed cells of every frame */
+    public final static String OUTPUT_CONSOLE_LIVE = "live";
 
     // Default values
     /** Default image file path */
     public final static String DEFAULT_IMAGE_PATH = "cat.jpeg";
     /** Default output file name for HTML */
     public final static String DEFAULT_OUTPUT_FILENAME = "out.html";
+    /** Default output file name for compressed HTML */
+    public final static String DEFAULT_COMPRESSED_OUTPUT_FILENAME = "out.html.gz";
     /** Default font for HTML output */
     public final static String DEFAULT_OUTPUT_FONT = "Courier New";
+    /** System property naming the file glyphs are persisted to, unset keeps them in memory only */
+    public final static String GLYPH_CACHE_FILE_PROPERTY = "ascii_art.glyphCacheFile";
+    /** System property setting the largest decoded image in bytes, larger images are subsampled */
+    public final static String MAX_RASTER_BYTES_PROPERTY = "ascii_art.maxRasterBytes";
+    /** System property naming the directory decoded images are cached in, unset disables it */
+    public final static String RASTER_CACHE_DIR_PROPERTY = "ascii_art.rasterCacheDir";
+    /** System property setting the disk budget of the decoded image cache in bytes */
+    public final static String RASTER_CACHE_BYTES_PROPERTY = "ascii_art.rasterCacheBytes";
+    /** Default disk budget of the decoded image cache */
+    public final static long DEFAULT_RASTER_CACHE_BYTES = 1L << 30;
+    /** System property setting the smallest color raster in bytes that is kept off the heap */
+    public final static String OFF_HEAP_RASTER_BYTES_PROPERTY = "ascii_art.offHeapRasterBytes";
+    /** Default smallest color raster kept off the heap */
+    public final static long DEFAULT_OFF_HEAP_RASTER_BYTES = 1L << 26;
+    /** System property setting the number of threads batch rendering computes on */
+    public final static String BATCH_THREADS_PROPERTY = "ascii_art.batchThreads";
+
+    // Batch rendering
+    /** Batch usage message */
+    public final static String BATCH_USAGE_MSG = "Usage: java ascii_art.BatchRenderer "
+        + "<directory|glob> <resolution> <charset|all> <html|htmlgz|htmlcolor> [output directory]";
+    /** Batch summary message */
+    public final static String BATCH_SUMMARY_MSG =
+        "Rendered %d of %d images in %.2f s (%.1f images/s, %.1f MB/s read).";
+    /** Batch failures header message */
+    public final static String BATCH_FAILURES_MSG = "%d failed:";
+    /** Batch failure message of a single image */
+    public final static String BATCH_FAILURE_MSG = "  %s: %s";
+    /** Number of images whose brightness pyramids are kept in memory */
+    public final static int BRIGHTNESS_CACHE_CAPACITY = 4;
 
     // Indices and lengths
     /** Index of command parameters */
@@ -87,6 +167,26 @@ public class ShellConsts {
     /** Error message: Resolution exceeds boundaries */
     public final static String RESOLUTION_EXCEED_BOUNDRAIES_MSG = 
         "Did not change resolution due to exceeding boundaries.";
+    /** Error message: Invalid parallelism command format */
+    public final static String INVALID_PARALLELISM_PARAMETERS =
+        "Did not change parallelism due to incorrect format.";
+    /** Error message: Invalid cells command format */
+    public final static String INVALID_CELLS_PARAMETERS =
+        "Did not change cells due to incorrect format.";
+    /** Error message: Invalid match command format */
+    public final static String INVALID_MATCHING_PARAMETERS =
+        "Did not change matching due to incorrect format.";
+    /** Error message: Invalid pixels command format */
+    public final static String INVALID_PIXELS_PARAMETERS =
+        "Did not change pixels due to incorrect format.";
+    /** Error message: Invalid stats command format */
+    public final static String INVALID_STATS_PARAMETERS = "Did not execute due to incorrect format.";
+    /** Error message: Invalid batch arguments */
+    public final static String INVALID_BATCH_ARGUMENTS = "Did not execute due to incorrect format.";
+    /** Error message: No batch input images */
+    public final static String BATCH_NO_INPUTS_MSG = "Did not execute, no images found for \"%s\".";
+    /** Error message: Batch output could not be written */
+    public final static String BATCH_WRITE_FAIL_MSG = "Failed to write \"%s\"";
     /** Error message: Change image fail */
     public final static String CHANGE_IMAGE_FAIL_MSG = "Did not execute due to problem with image file.";
     /** Error message: Change output fail */
@@ -94,6 +194,20 @@ public class ShellConsts {
         "Did not change output method due to incorrect format.";
     /** Error message: Run algorithm fail */
     public final static String RUN_ALGO_FAIL_MSG = "Did not execute. Charset is empty.";
+    /** Warning message: Glyph cache file could not be read */
+    public final static String GLYPH_CACHE_LOAD_FAIL_MSG = "Failed to load the glyph cache \"%s\"";
+    /** Warning message: Glyph cache file could not be written */
+    public final static String GLYPH_CACHE_SAVE_FAIL_MSG = "Failed to save the glyph cache \"%s\"";
+    /** Warning message: Decoded image cache directory could not be opened */
+    public final static String RASTER_CACHE_OPEN_FAIL_MSG = "Failed to open the raster cache \"%s\"";
     /** Resolution change message */
     public final static String RESOLUTION_CHANGE_MSG = "Resolution set to %d.";
+    /** Parallelism change message */
+    public final static String PARALLELISM_CHANGE_MSG = "Parallelism set to %d.";
+    /** Cells change message */
+    public final static String CELLS_CHANGE_MSG = "Cells set to %s.";
+    /** Matching change message */
+    public final static String MATCHING_CHANGE_MSG = "Matching set to %s.";
+    /** Pixels change message */
+    public final static String PIXELS_CHANGE_MSG = "Pixels set to %s.";
 }
@@ -0,0 +1,139 @@
+package ascii_art;
+
+import ascii_output.AsciiOutput;
+import ascii_output.RowAsciiOutput;
+import image.Image;
+import image.ImageBrightnessIntegral;
+import image.StripeSource;
+import image.TileGrid;
+import image_char_matching.CharMatcherSnapshot;
+import image_char_matching.SubImgCharMatcher;
+
+import java.io.IOException;
+
+/**
+ * This class generates the same ASCII art as {@link AsciiArtAlgorithm}, one row of characters at
+ * a time. For every row it reads the stripe of the image the row covers, computes the brightness
+ * of the row's squares, matches their characters and emits the row, so memory stays at
+ * O(image width x square size) and the first row is written as soon as its stripe is read.
+ */
+public class StreamingAsciiArtAlgorithm {
+
+    private final StripeSource source;
+    private final int resolution;
+    private final double cellAspectRatio;
+    private final SubImgCharMatcher subImgCharMatcher;
+
+    /**
+     * Constructs a StreamingAsciiArtAlgorithm object.
+     *
+     * @param source            The input image, read one stripe at a time.
+     * @param resolution        The resolution of the ASCII art (the number of
+     *                          characters per row).
+     * @param subImgCharMatcher The character matcher based on image brightness.
+     */
+    public StreamingAsciiArtAlgorithm(StripeSource source, int resolution,
+            SubImgCharMatcher subImgCharMatcher) {
+        this(source, resolution, TileGrid.PADDED_SQUARES, subImgCharMatcher);
+    }
+
+    /**
+     * Constructs a StreamingAsciiArtAlgorithm object with the given cell layout.
+     *
+     * @param source            The input image, read one stripe at a time.
+     * @param resolution        The resolution of the ASCII art (the number of
+     *                          characters per row).
+     * @param cellAspectRatio   The height to width ratio of the cells, or
+     *                          {@link TileGrid#PADDED_SQUARES} for padded squares.
+     * @param subImgCharMatcher The character matcher based on image brightness.
+     */
+    public StreamingAsciiArtAlgorithm(StripeSource source, int resolution, double cellAspectRatio,
+            SubImgCharMatcher subImgCharMatcher) {
+        this.source = source;
+        this.resolution = resolution;
+        this.cellAspectRatio = cellAspectRatio;
+        this.subImgCharMatcher = subImgCharMatcher;
+    }
+
+    /**
+     * Generates the ASCII art and writes it row by row. Outputs that are not row oriented get
+     * the whole art at once when it is done.
+     *
+     * @param asciiOutput The output the rows are written to.
+     * @throws IOException if a stripe of the image cannot be read.
+     */
+    public void run(AsciiOutput asciiOutput) throws IOException {
+        PipelineStats stats = PipelineStats.getInstance();
+        CharMatcherSnapshot snapshot = subImgCharMatcher.getSnapshot();
+        int imageHeight = source.getHeight();
+        TileGrid grid = new TileGrid(source.getWidth(), imageHeight, resolution, cellAspectRatio);
+        int rows = grid.getRows();
+        int cols = grid.getCols();
+
+        RowAsciiOutput rowOutput = asciiOutput instanceof RowAsciiOutput
+                ? (RowAsciiOutput) asciiOutput
+                : null;
+        char[][] asciiData = rowOutput == null ? new char[rows][cols] : null;
+        char[] asciiRow = new char[cols];
+        double[] rowBrightness = new double[cols];
+        // every stage is measured once per run, paused while the other stages work on a row
+        PipelineStats.Measurement decode = stats.measure(PipelineStage.DECODE);
+        PipelineStats.Measurement brightness = stats.measure(PipelineStage.BRIGHTNESS);
+        PipelineStats.Measurement matching = stats.measure(PipelineStage.MATCHING);
+        PipelineStats.Measurement output = stats.measure(PipelineStage.OUTPUT);
+        decode.pause();
+        brightness.pause();
+        matching.pause();
+        try {
+            if (rowOutput != null) {
+                rowOutput.begin(rows, cols);
+            }
+            output.pause();
+            for (int row = 0; row < rows; row++) {
+                int cellTop = grid.getCellY(row);
+                int cellHeight = grid.getCellHeight(row);
+                int stripeTop = Math.max(0, cellTop);
+                int stripeBottom = Math.min(imageHeight, cellTop + cellHeight);
+                // a row of cells that lies entirely in the padding is plain white
+                Image stripe = null;
+                if (stripeTop < stripeBottom) {
+                    decode.resume();
+                    stripe = source.readStripe(stripeTop, stripeBottom - stripeTop);
+                    decode.pause();
+                }
+                brightness.resume();
+                ImageBrightnessIntegral stripeIntegral = stripe == null ? null : new ImageBrightnessIntegral(stripe);
+                for (int col = 0; col < cols; col++) {
+                    rowBrightness[col] = stripeIntegral == null ? 1.0 : stripeIntegral.getRegionBrightness(
+                            grid.getCellX(col),
+                            cellTop - stripeTop,
+                            grid.getCellWidth(col), cellHeight);
+                }
+                brightness.pause();
+                matching.resume();
+                for (int col = 0; col < cols; col++) {
+                    asciiRow[col] = snapshot.getCharByImageBrightness(rowBrightness[col]);
+                }
+                matching.pause();
+                if (rowOutput != null) {
+                    output.resume();
+                    rowOutput.outRow(asciiRow);
+                    output.pause();
+                } else {
+                    System.arraycopy(asciiRow, 0, asciiData[row], 0, cols);
+                }
+            }
+            output.resume();
+            if (rowOutput != null) {
+                rowOutput.end();
+            } else {
+                asciiOutput.out(asciiData);
+            }
+        } finally {
+            decode.close();
+            brightness.close();
+            matching.close();
+            output.close();
+        }
+    }
+}
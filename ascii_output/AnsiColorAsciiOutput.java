@@ -0,0 +1,65 @@
+package ascii_output;
+
+import java.io.PrintStream;
+
+/**
+ * Output a 2D array of chars to the console, each in its own 24 bit ANSI color.
+ * A color escape is only written where the color differs from the previous cell, and the whole
+ * frame is written in a single bulk call.
+ */
+public class AnsiColorAsciiOutput implements ColorAsciiOutput {
+    private static final char CELL_SEPARATOR = ' ';
+    private static final String ANSI_COLOR_PREFIX = "\u001b[38;2;";
+    private static final char ANSI_COLOR_SEPARATOR = ';';
+    private static final char ANSI_COLOR_SUFFIX = 'm';
+    private static final String ANSI_RESET = "\u001b[0m";
+    private static final int DEFAULT_COLOR = 0xFFFFFF;
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    /**
+     * Cells are laid out as in {@link ConsoleAsciiOutput}, a char and a separator each.
+     */
+    @Override
+    public double getCellAspectRatio() {
+        return ConsoleAsciiOutput.CELL_ASPECT_RATIO;
+    }
+
+    /**
+     * Output the specified 2D array of chars in the default console color
+     */
+    @Override
+    public void out(char[][] chars) {
+        out(chars, null);
+    }
+
+    @Override
+    public void out(char[][] chars, int[][] colors) {
+        buffer.setLength(0);
+        for (int y = 0; y < chars.length; y++) {
+            int previousColor = -1;
+            for (int x = 0; x < chars[y].length; x++) {
+                int color = colors == null ? DEFAULT_COLOR : colors[y][x];
+                if (colors != null && color != previousColor) {
+                    appendColor(color);
+                    previousColor = color;
+                }
+                buffer.append(chars[y][x]).append(CELL_SEPARATOR);
+            }
+            if (colors != null) {
+                buffer.append(ANSI_RESET);
+            }
+            buffer.append(System.lineSeparator());
+        }
+        PrintStream out = System.out;
+        out.append(buffer);
+        out.flush();
+    }
+
+    private void appendColor(int color) {
+        buffer.append(ANSI_COLOR_PREFIX)
+                .append((color >> 16) & 0xFF).append(ANSI_COLOR_SEPARATOR)
+                .append((color >> 8) & 0xFF).append(ANSI_COLOR_SEPARATOR)
+                .append(color & 0xFF).append(ANSI_COLOR_SUFFIX);
+    }
+}
@@ -10,4 +10,10 @@ public interface AsciiOutput {
      * Output the specified 2D array of chars
      */
     void out(char[][] chars);
+
+    /**
+     * Returns the height to width ratio of the cell every char takes in this output, spacing
+     * included, so the image can be divided to cells of the same shape.
+     */
+    double getCellAspectRatio();
 }
@@ -0,0 +1,12 @@
+package ascii_output;
+
+/**
+ * An AsciiOutput that can also output the color of every char.
+ */
+public interface ColorAsciiOutput extends AsciiOutput {
+    /**
+     * Output the specified 2D array of chars, each in the color at the same position of colors,
+     * given as a packed 0xRRGGBB int
+     */
+    void out(char[][] chars, int[][] colors);
+}
@@ -1,16 +1,168 @@
 package ascii_output;
 
+import java.io.PrintStream;
+
 /**
  * Output a 2D array of chars to the console.
+ * Rows are assembled in a reusable buffer that is written to the console in bulk, once per frame
+ * or whenever it grows past FLUSH_THRESHOLD chars.
+ * In live mode every frame is drawn over the previous one: when the dimensions did not change,
+ * only the cells that changed are written, each behind an ANSI cursor move. A frame drawn in full
+ * starts on a cleared screen and saves its top-left corner (ESC 7); the next frame restores it
+ * (ESC 8) and moves from there, so prompts and messages printed between frames do not shift the
+ * cells. Every frame erases the screen below it, so that text never piles up and scrolls the
+ * frame away. A frame that does not fit the terminal together with the prompt line below it (the
+ * LINES environment variable, when it is exported) would scroll, and is drawn in full.
  * @author Dan Nirel
- */public class ConsoleAsciiOutput implements AsciiOutput{
+ */public class ConsoleAsciiOutput implements RowAsciiOutput{
+    private static final int FLUSH_THRESHOLD = 1 << 16;
+    private static final char CELL_SEPARATOR = ' ';
+    private static final String ANSI_CLEAR_SCREEN = "\u001b[H\u001b[2J";
+    private static final String ANSI_SAVE_CURSOR = "\u001b7";
+    private static final String ANSI_RESTORE_CURSOR = "\u001b8";
+    private static final String ANSI_CLEAR_BELOW = "\u001b[J";
+    private static final String ANSI_CURSOR_PREFIX = "\u001b[";
+    private static final char ANSI_CURSOR_UP = 'A';
+    private static final char ANSI_CURSOR_DOWN = 'B';
+    private static final char ANSI_CURSOR_FORWARD = 'C';
+    private static final char CARRIAGE_RETURN = '\r';
+    private static final int CELL_WIDTH = 2;
+    // a terminal character is about twice as tall as it is wide
+    private static final double TERMINAL_CHAR_ASPECT_RATIO = 2.0;
+    /** The height to width ratio of a char and its separator on a terminal */
+    static final double CELL_ASPECT_RATIO = TERMINAL_CHAR_ASPECT_RATIO / CELL_WIDTH;
+    private static final String TERMINAL_ROWS_VARIABLE = "LINES";
+    // the shell prompt is written on the line below the frame
+    private static final int PROMPT_ROWS = 1;
+
+    private final boolean liveMode;
+    private final int terminalRows;
+    private final StringBuilder buffer;
+    private char[][] previousFrame;
+    private char[][] currentFrame;
+    private boolean redrawFrame;
+    private int currentRow;
+    private int cursorRow;
+    private int cursorCol;
+
+    /** Constructs an output that prints every frame below the previous one. */
+    public ConsoleAsciiOutput() {
+        this(false);
+    }
+
+    /**
+     * @param liveMode Whether every frame is drawn over the previous one, rewriting only the
+     *                 cells that changed.
+     */
+    public ConsoleAsciiOutput(boolean liveMode) {
+        this.liveMode = liveMode;
+        this.terminalRows = findTerminalRows();
+        this.buffer = new StringBuilder();
+    }
+
+    @Override
+    public double getCellAspectRatio() {
+        return CELL_ASPECT_RATIO;
+    }
+
+    @Override
+    public void begin(int rows, int cols) {
+        buffer.setLength(0);
+        currentRow = 0;
+        if (!liveMode) {
+            return;
+        }
+        redrawFrame = previousFrame == null || previousFrame.length != rows ||
+                (rows > 0 && previousFrame[0].length != cols) || rows + PROMPT_ROWS >= terminalRows;
+        if (currentFrame == null || currentFrame.length != rows ||
+                (rows > 0 && currentFrame[0].length != cols)) {
+            currentFrame = new char[rows][cols];
+        }
+        // whatever was printed since the previous frame, the cursor starts at the frame's top-left
+        buffer.append(redrawFrame ? ANSI_CLEAR_SCREEN + ANSI_SAVE_CURSOR : ANSI_RESTORE_CURSOR);
+        cursorRow = 0;
+        cursorCol = 0;
+    }
+
+    @Override
+    public void outRow(char[] row) {
+        if (liveMode && !redrawFrame) {
+            appendChangedCells(row, previousFrame[currentRow]);
+        } else {
+            for (int x = 0; x < row.length; x++) {
+                buffer.append(row[x]).append(CELL_SEPARATOR);
+            }
+            buffer.append(System.lineSeparator());
+        }
+        if (liveMode) {
+            System.arraycopy(row, 0, currentFrame[currentRow], 0, row.length);
+        }
+        currentRow++;
+        if (buffer.length() >= FLUSH_THRESHOLD) {
+            flush();
+        }
+    }
+
     @Override
-    public void out(char[][] chars) {
-        for (int y = 0; y < chars.length ; y++) {
-            for (int x = 0; x < chars[y].length; x++) {
-                System.out.print(chars[y][x] + " ");
+    public void end() {
+        if (liveMode) {
+            if (!redrawFrame) {
+                appendCursorMove(currentRow, 0);
+            }
+            buffer.append(ANSI_CLEAR_BELOW);
+            char[][] swap = previousFrame;
+            previousFrame = currentFrame;
+            currentFrame = swap;
+        }
+        flush();
+    }
+
+    private void appendChangedCells(char[] row, char[] previousRow) {
+        for (int x = 0; x < row.length; x++) {
+            if (row[x] != previousRow[x]) {
+                appendCursorMove(currentRow, x * CELL_WIDTH);
+                buffer.append(row[x]);
+                cursorCol++;
             }
-            System.out.println();
         }
     }
+
+    // Moves the cursor from where it is to a cell of the frame, relative to its top-left
+    private void appendCursorMove(int row, int col) {
+        if (row < cursorRow) {
+            appendAnsiMove(cursorRow - row, ANSI_CURSOR_UP);
+        } else if (row > cursorRow) {
+            appendAnsiMove(row - cursorRow, ANSI_CURSOR_DOWN);
+        }
+        if (col < cursorCol) {
+            buffer.append(CARRIAGE_RETURN);
+            cursorCol = 0;
+        }
+        if (col > cursorCol) {
+            appendAnsiMove(col - cursorCol, ANSI_CURSOR_FORWARD);
+        }
+        cursorRow = row;
+        cursorCol = col;
+    }
+
+    private void appendAnsiMove(int count, char direction) {
+        buffer.append(ANSI_CURSOR_PREFIX).append(count).append(direction);
+    }
+
+    // The terminal height if the shell exports it, otherwise frames of any height are diffed
+    private static int findTerminalRows() {
+        try {
+            String lines = System.getenv(TERMINAL_ROWS_VARIABLE);
+            return lines == null ? Integer.MAX_VALUE : Integer.parseInt(lines.trim());
+        } catch (NumberFormatException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    private void flush() {
+        PrintStream out = System.out;
+        out.append(buffer);
+        out.flush();
+        buffer.setLength(0);
+    }
 }
@@ -1,30 +1,93 @@
 package ascii_output;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import image_char_matching.CharConverter;
+
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Output a 2D array of chars to an HTML file viewable in a web browser.
+ * Every row is escaped through a precomputed table into a reusable char buffer, encoded into a
+ * reusable byte buffer and written to a FileChannel, optionally through gzip compression.
  * @author Dan Nirel
  */
-public class HtmlAsciiOutput implements AsciiOutput {
+public class HtmlAsciiOutput implements RowAsciiOutput {
     private static final double BASE_LINE_SPACING = 0.8;
+    private static final double LETTER_SPACING = 0.15;
     private static final double BASE_FONT_SIZE = 150.0;
+    private static final int BYTE_BUFFER_SIZE = 1 << 16;
+    private static final int ESCAPE_TABLE_SIZE = 128;
+    private static final char[][] ESCAPE_TABLE = createEscapeTable();
+    private static final int MAX_ESCAPE_LENGTH = 5;
+    private static final char[] SPAN_OPEN = "<span style=\"color:#".toCharArray();
+    private static final char[] SPAN_OPEN_END = "\">".toCharArray();
+    private static final char[] SPAN_CLOSE = "</span>".toCharArray();
+    private static final int COLOR_HEX_DIGITS = 3;
+    private static final int CHANNEL_LEVEL_SIZE = 17;
+    private static final int MAX_SPAN_LENGTH =
+            SPAN_CLOSE.length + SPAN_OPEN.length + COLOR_HEX_DIGITS + SPAN_OPEN_END.length;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final String LINE_SEPARATOR = System.lineSeparator();
 
     private final String fontName;
+    private final double cellAspectRatio;
     private final String filename;
+    private final boolean compress;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer byteBuffer;
+    private char[] rowBuffer;
+    private WritableByteChannel channel;
+    private boolean failed;
 
     public HtmlAsciiOutput(String filename, String fontName) {
+        this(filename, fontName, false);
+    }
+
+    /**
+     * @param filename The file to write to.
+     * @param fontName The font the page is displayed in.
+     * @param compress Whether the file is gzip compressed, for serving as .html.gz.
+     */
+    public HtmlAsciiOutput(String filename, String fontName, boolean compress) {
         this.fontName = fontName;
+        // a line is LINE-HEIGHT tall, a char is its advance plus LETTER-SPACING wide, all in ems
+        this.cellAspectRatio = BASE_LINE_SPACING / (CharConverter.getCharAdvance(fontName) + LETTER_SPACING);
         this.filename = filename;
+        this.compress = compress;
+        this.encoder = StandardCharsets.UTF_8.newEncoder();
+        this.byteBuffer = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+        this.rowBuffer = new char[0];
     }
 
     @Override
-    public void out(char[][] chars) {
-        try(BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-            writer.write(String.format(
+    public double getCellAspectRatio() {
+        return cellAspectRatio;
+    }
+
+    @Override
+    public void begin(int rows, int cols) {
+        failed = false;
+        try {
+            FileChannel fileChannel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            channel = compress
+                    ? Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(fileChannel),
+                            BYTE_BUFFER_SIZE))
+                    : fileChannel;
+            byteBuffer.clear();
+            encoder.reset();
+            write(String.format(
                 "<!DOCTYPE html>\n"+
                 "<html>\n"+
                 "<body style=\""+
@@ -35,29 +98,163 @@ public class HtmlAsciiOutput implements AsciiOutput {
                     "\twhite-space:pre;"+
                     "\tFONT-FAMILY:%s;"+
                     "\tFONT-SIZE:%frem;"+
-                    "\tLETTER-SPACING:0.15em;"+
+                    "\tLETTER-SPACING:%fem;"+
                     "\tLINE-HEIGHT:%fem;\">\n",
-                    fontName, BASE_FONT_SIZE/chars[0].length, BASE_LINE_SPACING));
-
-            for(int y = 0 ; y < chars.length ; y++) {
-                for (int x = 0; x < chars[y].length ; x++) {
-                    String htmlRep;
-                    switch(chars[y][x]) {
-                        case '<': htmlRep = "&lt;";  break;
-                        case '>': htmlRep = "&gt;";  break;
-                        case '&': htmlRep = "&amp;"; break;
-                        default:  htmlRep = String.valueOf(chars[y][x]);
-                    }
-                    writer.write(htmlRep);
+                    fontName, BASE_FONT_SIZE/cols, LETTER_SPACING, BASE_LINE_SPACING));
+        } catch(IOException e) {
+            fail();
+        }
+    }
+
+    @Override
+    public void outRow(char[] row) {
+        outRow(row, null);
+    }
+
+    /**
+     * Outputs the next row, wrapping every run of chars of the same color in a span.
+     * Colors are rounded to the 4096 colors of the #rgb shorthand, which both shortens every span
+     * and lets runs of nearly identical colors share one.
+     *
+     * @param row       The chars of the row.
+     * @param rowColors The color of every char as a packed 0xRRGGBB int, or null to write the
+     *                  row in the page color.
+     */
+    protected void outRow(char[] row, int[] rowColors) {
+        if (channel == null) {
+            return;
+        }
+        int maxCellLength = MAX_ESCAPE_LENGTH + (rowColors == null ? 0 : MAX_SPAN_LENGTH);
+        int maxLength = row.length * maxCellLength + SPAN_CLOSE.length + LINE_SEPARATOR.length();
+        if (rowBuffer.length < maxLength) {
+            rowBuffer = new char[maxLength];
+        }
+        int length = 0;
+        int previousColor = -1;
+        for (int x = 0; x < row.length; x++) {
+            int color = rowColors == null ? -1 : toShorthandColor(rowColors[x]);
+            if (color != previousColor) {
+                if (x > 0) {
+                    length = append(SPAN_CLOSE, length);
                 }
-                writer.newLine();
+                length = appendSpanOpen(color, length);
+                previousColor = color;
+            }
+            char c = row[x];
+            char[] escape = c < ESCAPE_TABLE_SIZE ? ESCAPE_TABLE[c] : null;
+            if (escape == null) {
+                rowBuffer[length++] = c;
+            } else {
+                length = append(escape, length);
             }
-            writer.write(
+        }
+        if (rowColors != null && row.length > 0) {
+            length = append(SPAN_CLOSE, length);
+        }
+        LINE_SEPARATOR.getChars(0, LINE_SEPARATOR.length(), rowBuffer, length);
+        length += LINE_SEPARATOR.length();
+        try {
+            write(CharBuffer.wrap(rowBuffer, 0, length));
+        } catch(IOException e) {
+            fail();
+        }
+    }
+
+    @Override
+    public void end() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            write(
                 "</p>\n"+
                 "</body>\n"+
                 "</html>\n");
+            encoder.encode(CharBuffer.allocate(0), byteBuffer, true);
+            encoder.flush(byteBuffer);
+            drain();
+            channel.close();
+            channel = null;
         } catch(IOException e) {
-            Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
+            fail();
         }
     }
+
+    private int append(char[] chars, int length) {
+        System.arraycopy(chars, 0, rowBuffer, length, chars.length);
+        return length + chars.length;
+    }
+
+    // Rounds every channel of a packed 0xRRGGBB color to a single hex digit, giving 0xRGB
+    private static int toShorthandColor(int color) {
+        int shorthand = 0;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int level = (((color >> shift) & 0xFF) + CHANNEL_LEVEL_SIZE / 2) / CHANNEL_LEVEL_SIZE;
+            shorthand = (shorthand << 4) | level;
+        }
+        return shorthand;
+    }
+
+    private int appendSpanOpen(int shorthandColor, int length) {
+        length = append(SPAN_OPEN, length);
+        for (int digit = COLOR_HEX_DIGITS - 1; digit >= 0; digit--) {
+            rowBuffer[length++] = HEX_DIGITS[(shorthandColor >> (digit * 4)) & 0xF];
+        }
+        return append(SPAN_OPEN_END, length);
+    }
+
+    private void write(CharSequence text) throws IOException {
+        write(CharBuffer.wrap(text));
+    }
+
+    // Encodes the chars into the byte buffer, writing it out whenever it fills up
+    private void write(CharBuffer chars) throws IOException {
+        while (true) {
+            CoderResult result = encoder.encode(chars, byteBuffer, false);
+            if (result.isOverflow()) {
+                drain();
+            } else if (result.isUnderflow()) {
+                return;
+            } else {
+                result.throwException();
+            }
+        }
+    }
+
+    private void drain() throws IOException {
+        byteBuffer.flip();
+        while (byteBuffer.hasRemaining()) {
+            channel.write(byteBuffer);
+        }
+        byteBuffer.clear();
+    }
+
+    /**
+     * Returns true if writing the last output failed, the failure has already been logged.
+     */
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    // Logs the failure and drops the rest of the output
+    private void fail() {
+        failed = true;
+        Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // the failure was already reported
+            }
+            channel = null;
+        }
+    }
+
+    private static char[][] createEscapeTable() {
+        char[][] table = new char[ESCAPE_TABLE_SIZE][];
+        table['<'] = "&lt;".toCharArray();
+        table['>'] = "&gt;".toCharArray();
+        table['&'] = "&amp;".toCharArray();
+        return table;
+    }
 }
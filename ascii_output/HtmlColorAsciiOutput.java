@@ -0,0 +1,31 @@
+package ascii_output;
+
+/**
+ * Output a 2D array of chars to an HTML file, each char in its own color.
+ * Runs of adjacent chars of the same color share a single span, so the file stays close in
+ * size to the one {@link HtmlAsciiOutput} writes.
+ */
+public class HtmlColorAsciiOutput extends HtmlAsciiOutput implements ColorAsciiOutput {
+
+    public HtmlColorAsciiOutput(String filename, String fontName) {
+        super(filename, fontName);
+    }
+
+    /**
+     * @param filename The file to write to.
+     * @param fontName The font the page is displayed in.
+     * @param compress Whether the file is gzip compressed, for serving as .html.gz.
+     */
+    public HtmlColorAsciiOutput(String filename, String fontName, boolean compress) {
+        super(filename, fontName, compress);
+    }
+
+    @Override
+    public void out(char[][] chars, int[][] colors) {
+        begin(chars.length, chars.length == 0 ? 0 : chars[0].length);
+        for (int y = 0; y < chars.length; y++) {
+            outRow(chars[y], colors[y]);
+        }
+        end();
+    }
+}
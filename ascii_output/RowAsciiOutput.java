@@ -0,0 +1,35 @@
+package ascii_output;
+
+/**
+ * An AsciiOutput that can also be fed one row at a time, so the first rows are written
+ * while the later ones are still being computed.
+ * A streamed output is a call to begin, one call to outRow per row, and a call to end.
+ */
+public interface RowAsciiOutput extends AsciiOutput {
+    /**
+     * Starts a new output of the given dimensions.
+     */
+    void begin(int rows, int cols);
+
+    /**
+     * Outputs the next row. The array may be reused by the caller once this returns.
+     */
+    void outRow(char[] row);
+
+    /**
+     * Finishes the current output.
+     */
+    void end();
+
+    /**
+     * Output the specified 2D array of chars, row by row
+     */
+    @Override
+    default void out(char[][] chars) {
+        begin(chars.length, chars.length == 0 ? 0 : chars[0].length);
+        for (char[] row : chars) {
+            outRow(row);
+        }
+        end();
+    }
+}
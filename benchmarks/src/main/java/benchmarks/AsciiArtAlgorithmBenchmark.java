@@ -0,0 +1,40 @@
+package benchmarks;
+
+import ascii_art.AsciiArtAlgorithm;
+import image.Image;
+import image_char_matching.SubImgCharMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * End to end benchmark of AsciiArtAlgorithm.run(), from a decoded image to the ASCII art,
+ * without any brightness state cached between invocations.
+ */
+@State(Scope.Benchmark)
+public class AsciiArtAlgorithmBenchmark extends PipelineBenchmark {
+    @Param({"256", "1000", "2048"})
+    public int imageSize;
+
+    @Param({"10", "95"})
+    public int charsetSize;
+
+    @Param({"128"})
+    public int resolution;
+
+    private Image image;
+    private SubImgCharMatcher matcher;
+
+    @Setup
+    public void setUp() {
+        image = BenchmarkImages.syntheticImage(imageSize, imageSize);
+        matcher = new SubImgCharMatcher(BenchmarkImages.charset(charsetSize));
+    }
+
+    @Benchmark
+    public char[][] run() {
+        return new AsciiArtAlgorithm(image, resolution, matcher).run();
+    }
+}
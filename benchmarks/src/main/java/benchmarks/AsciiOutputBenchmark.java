@@ -0,0 +1,65 @@
+package benchmarks;
+
+import ascii_art.AsciiArtAlgorithm;
+import ascii_output.ConsoleAsciiOutput;
+import ascii_output.HtmlAsciiOutput;
+import image_char_matching.CharConverter;
+import image_char_matching.SubImgCharMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Benchmarks of the AsciiOutput writers. The console output is sent to a discarding stream,
+ * so only the formatting and buffering are measured.
+ */
+@State(Scope.Benchmark)
+public class AsciiOutputBenchmark extends PipelineBenchmark {
+    private static final int IMAGE_SIZE = 1024;
+
+    @Param({"64", "256"})
+    public int resolution;
+
+    private char[][] asciiArt;
+    private Path htmlFile;
+    private PrintStream originalOut;
+
+    @Setup
+    public void setUp() throws IOException {
+        asciiArt = new AsciiArtAlgorithm(BenchmarkImages.syntheticImage(IMAGE_SIZE, IMAGE_SIZE),
+                resolution, new SubImgCharMatcher(BenchmarkImages.charset(95))).run();
+        htmlFile = Files.createTempFile("ascii_art_benchmark", ".html");
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.setOut(originalOut);
+        Files.deleteIfExists(htmlFile);
+    }
+
+    @Benchmark
+    public void html() {
+        new HtmlAsciiOutput(htmlFile.toString(), CharConverter.FONT_NAME).out(asciiArt);
+    }
+
+    @Benchmark
+    public void htmlCompressed() {
+        new HtmlAsciiOutput(htmlFile.toString(), CharConverter.FONT_NAME, true).out(asciiArt);
+    }
+
+    @Benchmark
+    public void console() {
+        new ConsoleAsciiOutput().out(asciiArt);
+    }
+}
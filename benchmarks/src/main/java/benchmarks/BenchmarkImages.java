@@ -0,0 +1,62 @@
+package benchmarks;
+
+import ascii_art.AsciiConsts;
+import image.Image;
+
+import java.util.Random;
+
+/**
+ * Deterministic inputs shared by the benchmarks: synthetic images and character sets.
+ */
+final class BenchmarkImages {
+    private static final long SEED = 0x5EEDL;
+    private static final int NOISE_LEVELS = 32;
+
+    private BenchmarkImages() {
+    }
+
+    /**
+     * Creates a synthetic image: a diagonal color gradient with noise on top, so every square
+     * has a different brightness and no stage can take a uniform-color shortcut.
+     *
+     * @param width  The image width.
+     * @param height The image height.
+     * @return The synthetic image.
+     */
+    static Image syntheticImage(int width, int height) {
+        Random random = new Random(SEED);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = clamp(x * 255 / width + random.nextInt(NOISE_LEVELS) - NOISE_LEVELS / 2);
+                int green = clamp(y * 255 / height + random.nextInt(NOISE_LEVELS) - NOISE_LEVELS / 2);
+                int blue = clamp((x + y) * 255 / (width + height) + random.nextInt(NOISE_LEVELS));
+                pixels[y * width + x] = 0xFF000000 | red << 16 | green << 8 | blue;
+            }
+        }
+        return new Image(pixels, width, height);
+    }
+
+    /**
+     * Creates a character set of the given size, taken from the printable ASCII range.
+     *
+     * @param size The number of characters.
+     * @return The character set.
+     */
+    static char[] charset(int size) {
+        int available = AsciiConsts.ASCII_ART_LAST_VAL - AsciiConsts.ASCII_ART_FIRST_VAL + 1;
+        if (size < 1 || size > available) {
+            throw new IllegalArgumentException("Charset size must be between 1 and " + available);
+        }
+        char[] chars = new char[size];
+        for (int i = 0; i < size; i++) {
+            // spread the chars over the whole range so small sets still span many brightness levels
+            chars[i] = (char) (AsciiConsts.ASCII_ART_FIRST_VAL + (long) i * available / size);
+        }
+        return chars;
+    }
+
+    private static int clamp(int channel) {
+        return Math.max(0, Math.min(255, channel));
+    }
+}
@@ -0,0 +1,30 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so every result comes with its allocation rate.
+ * The forked JVMs get the incubating Vector API module, so the vector luminance kernel is measured.
+ * Accepts the usual JMH command line options, e.g. a benchmark name pattern to run a single stage.
+ */
+public class BenchmarkRunner {
+    private static final String VECTOR_MODULE_ARG = "--add-modules=jdk.incubator.vector";
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args JMH command line options.
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .jvmArgsPrepend(VECTOR_MODULE_ARG)
+                .build()).run();
+    }
+}
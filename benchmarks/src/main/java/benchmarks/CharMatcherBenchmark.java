@@ -0,0 +1,52 @@
+package benchmarks;
+
+import image.BrightnessPyramid;
+import image_char_matching.SubImgCharMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of SubImgCharMatcher: building a matcher for a charset and matching a grid of
+ * square brightness values. Glyphs are rendered once per JVM, so building measures the
+ * brightness normalization rather than the font rendering.
+ */
+@State(Scope.Benchmark)
+public class CharMatcherBenchmark extends PipelineBenchmark {
+    private static final int IMAGE_SIZE = 1024;
+    private static final int RESOLUTION = 256;
+
+    @Param({"10", "32", "95"})
+    public int charsetSize;
+
+    private char[] charset;
+    private SubImgCharMatcher matcher;
+    private double[][] brightness;
+
+    @Setup
+    public void setUp() {
+        charset = BenchmarkImages.charset(charsetSize);
+        matcher = new SubImgCharMatcher(charset);
+        brightness = new BrightnessPyramid(BenchmarkImages.syntheticImage(IMAGE_SIZE, IMAGE_SIZE))
+                .getBrightnessGrid(RESOLUTION);
+    }
+
+    @Benchmark
+    public char buildMatcher() {
+        // the first lookup compiles the brightness table
+        return new SubImgCharMatcher(charset).getCharByImageBrightness(0);
+    }
+
+    @Benchmark
+    public char[][] matchGrid() {
+        char[][] chars = new char[brightness.length][brightness[0].length];
+        for (int row = 0; row < brightness.length; row++) {
+            for (int col = 0; col < brightness[row].length; col++) {
+                chars[row][col] = matcher.getCharByImageBrightness(brightness[row][col]);
+            }
+        }
+        return chars;
+    }
+}
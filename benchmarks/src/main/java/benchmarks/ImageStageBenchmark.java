@@ -0,0 +1,74 @@
+package benchmarks;
+
+import image.BrightnessPyramid;
+import image.Image;
+import image.ImageBrightnessCalculator;
+import image.ImageBrightnessIntegral;
+import image.ImagePadder;
+import image.ImageSubDivider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of the image stages: padding, subdivision and square brightness.
+ * Sizes that are not powers of two exercise the padding path.
+ */
+@State(Scope.Benchmark)
+public class ImageStageBenchmark extends PipelineBenchmark {
+    @Param({"256", "1000", "2048"})
+    public int imageSize;
+
+    @Param({"64", "256"})
+    public int resolution;
+
+    private Image image;
+    private Image paddedImage;
+    private Image[][] squares;
+    private ImageBrightnessIntegral brightnessIntegral;
+
+    @Setup
+    public void setUp() {
+        image = BenchmarkImages.syntheticImage(imageSize, imageSize);
+        paddedImage = ImagePadder.padImageToNearestPowerOfTwo(image);
+        squares = ImageSubDivider.divideImageToSquares(paddedImage, squareSize());
+        brightnessIntegral = new ImageBrightnessIntegral(image);
+    }
+
+    @Benchmark
+    public Image pad() {
+        return ImagePadder.padImageToNearestPowerOfTwo(image);
+    }
+
+    @Benchmark
+    public Image[][] subdivide() {
+        return ImageSubDivider.divideImageToSquares(paddedImage, squareSize());
+    }
+
+    @Benchmark
+    public double[][] squareBrightness() {
+        double[][] brightness = new double[squares.length][squares[0].length];
+        for (int row = 0; row < squares.length; row++) {
+            for (int col = 0; col < squares[row].length; col++) {
+                brightness[row][col] = ImageBrightnessCalculator.calculateImageBrightness(squares[row][col]);
+            }
+        }
+        return brightness;
+    }
+
+    @Benchmark
+    public ImageBrightnessIntegral brightnessIntegral() {
+        return new ImageBrightnessIntegral(image);
+    }
+
+    @Benchmark
+    public double[][] brightnessGrid() {
+        return new BrightnessPyramid(brightnessIntegral).getBrightnessGrid(resolution);
+    }
+
+    private int squareSize() {
+        return Math.max(1, paddedImage.getWidth() / resolution);
+    }
+}
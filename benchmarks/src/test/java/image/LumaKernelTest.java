@@ -0,0 +1,85 @@
+package image;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Checks that the vector luminance kernel gives the results of the scalar one on random rasters,
+ * including widths that leave a tail shorter than one vector and rows spanning several blocks of
+ * the int sums.
+ */
+class LumaKernelTest {
+    private static final double TOLERANCE = 1e-9;
+    private static final long SEED = 0x5EED;
+    // the most white pixels the kernels sum in one int block
+    private static final int BLOCK_SIZE = (int) (Integer.MAX_VALUE / ImageBrightnessIntegral.WHITE_LUMA);
+    private static final int[] WIDTHS = {1, 2, 3, 5, 7, 15, 17, 31, 33, 63, 65, 101,
+            BLOCK_SIZE - 1, BLOCK_SIZE, BLOCK_SIZE + 1, 2 * BLOCK_SIZE + 7, 3 * BLOCK_SIZE + 13};
+    private static final int ROWS = 5;
+    private static final int WHITE = 0xFFFFFFFF;
+
+    @Test
+    void vectorKernelIsLoaded() {
+        assertNotNull(LumaKernel.VECTOR, "the tests must run with --add-modules jdk.incubator.vector");
+    }
+
+    @Test
+    void vectorLumaMatchesScalar() {
+        Random random = new Random(SEED);
+        for (int width : WIDTHS) {
+            int[] pixels = randomRaster(random, width);
+            for (int row = 0; row < ROWS; row++) {
+                int[] expected = new int[width];
+                int[] actual = new int[width];
+                LumaKernel.SCALAR.luma(pixels, row * width, width, expected);
+                LumaKernel.VECTOR.luma(pixels, row * width, width, actual);
+                assertArrayEquals(expected, actual, "width " + width + ", row " + row);
+            }
+        }
+    }
+
+    @Test
+    void vectorLumaSumMatchesScalar() {
+        Random random = new Random(SEED);
+        for (int width : WIDTHS) {
+            int[] pixels = randomRaster(random, width);
+            for (int row = 0; row < ROWS; row++) {
+                assertSumsAgree(pixels, row * width, width);
+            }
+            assertSumsAgree(pixels, 0, pixels.length);
+        }
+    }
+
+    @Test
+    void vectorLumaSumOfWhiteDoesNotOverflow() {
+        for (int width : WIDTHS) {
+            int[] pixels = new int[width * ROWS];
+            Arrays.fill(pixels, WHITE);
+            assertSumsAgree(pixels, 0, pixels.length);
+            assertEquals(pixels.length * ImageBrightnessIntegral.WHITE_LUMA,
+                    LumaKernel.VECTOR.lumaSum(pixels, 0, pixels.length), "width " + width);
+        }
+    }
+
+    private static void assertSumsAgree(int[] pixels, int from, int count) {
+        long expected = LumaKernel.SCALAR.lumaSum(pixels, from, count);
+        long actual = LumaKernel.VECTOR.lumaSum(pixels, from, count);
+        assertEquals(expected, actual, "pixels [" + from + ", " + (from + count) + ")");
+        double whiteSum = (double) count * ImageBrightnessIntegral.WHITE_LUMA;
+        assertEquals(expected / whiteSum, actual / whiteSum, TOLERANCE);
+    }
+
+    private static int[] randomRaster(Random random, int width) {
+        int[] pixels = new int[width * ROWS];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+}
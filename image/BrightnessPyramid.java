@@ -0,0 +1,340 @@
+package image;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The brightness grids of an image for every square size it can be divided to, and for the
+ * fitted cell layouts that were asked for.
+ * The cells are laid out by {@link TileGrid}, and each grid holds the brightness of its
+ * cells.
+ * A power of two level is derived from the finer level below it by summing 2x2 blocks,
+ * so once a resolution has been computed every coarser one is served from memory.
+ * Levels are kept as exact fixed point sums, so a level gives the same brightness values
+ * no matter which path produced it.
+ * A level that cannot be derived is summed from the pixel rows of the image, one row of cells at a
+ * time, so the pyramid never holds more than its levels and a row of pixels: no full resolution
+ * table of the image is built. A pyramid is not meant to be used by several threads at once.
+ */
+public class BrightnessPyramid {
+    private static final int LEVEL_FACTOR = 2;
+    private static final int MIN_ROWS_PER_BAND = 16;
+
+    private final Image image;
+    private final ImageBrightnessIntegral brightnessIntegral;
+    private final int imageWidth;
+    private final int imageHeight;
+    private final Map<Integer, Level> levels;
+    private final Map<Long, Level> fittedLevels;
+
+    /**
+     * Constructs a pyramid over the given image.
+     *
+     * @param image The image the brightness grids are computed for.
+     */
+    public BrightnessPyramid(Image image) {
+        this(image, null, image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * Constructs a pyramid over an already built brightness integral.
+     *
+     * @param brightnessIntegral The brightness integral of the image.
+     */
+    public BrightnessPyramid(ImageBrightnessIntegral brightnessIntegral) {
+        this(null, brightnessIntegral, brightnessIntegral.getWidth(), brightnessIntegral.getHeight());
+    }
+
+    private BrightnessPyramid(Image image, ImageBrightnessIntegral brightnessIntegral, int imageWidth,
+            int imageHeight) {
+        this.image = image;
+        this.brightnessIntegral = brightnessIntegral;
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        levels = new HashMap<>();
+        fittedLevels = new HashMap<>();
+    }
+
+    /**
+     * Returns the brightness of every square of the padded image, for the square size that
+     * matches the given resolution. The returned grid is shared and must not be modified.
+     *
+     * @param resolution The number of squares per row.
+     * @return The brightness grid, indexed by row then column.
+     */
+    public double[][] getBrightnessGrid(int resolution) {
+        return getBrightnessGrid(resolution, null);
+    }
+
+    /**
+     * Returns the brightness grid for the given resolution, computing missing levels in
+     * parallel row bands on the given pool. The grid is identical to the serially computed one.
+     *
+     * @param resolution The number of squares per row.
+     * @param pool       The pool to compute on, or null to compute serially.
+     * @return The brightness grid, indexed by row then column.
+     */
+    public double[][] getBrightnessGrid(int resolution, ForkJoinPool pool) {
+        return getBrightnessGrid(resolution, TileGrid.PADDED_SQUARES, pool);
+    }
+
+    /**
+     * Returns the brightness grid for the given resolution and cell layout. Fitted cell layouts
+     * are computed from the pixels and kept by their dimensions, since their cells do not nest in
+     * each other the way the padded squares do.
+     *
+     * @param resolution      The number of cells per row.
+     * @param cellAspectRatio The height to width ratio of the cells, or
+     *                        {@link TileGrid#PADDED_SQUARES} for padded squares.
+     * @param pool            The pool to compute on, or null to compute serially.
+     * @return The brightness grid, indexed by row then column.
+     */
+    public double[][] getBrightnessGrid(int resolution, double cellAspectRatio, ForkJoinPool pool) {
+        TileGrid grid = new TileGrid(imageWidth, imageHeight, resolution, cellAspectRatio);
+        if (!grid.isPaddedSquares()) {
+            // a fitted grid is fully determined by its dimensions
+            long key = (long) grid.getRows() << Integer.SIZE | grid.getCols();
+            return fittedLevels.computeIfAbsent(key, k -> computeLevel(grid, pool)).getBrightness();
+        }
+        int squareSize = grid.getSquareSize();
+        Level level = levels.get(squareSize);
+        if (level == null) {
+            Level finerLevel = isPowerOfTwo(squareSize) ? levels.get(squareSize / LEVEL_FACTOR) : null;
+            level = finerLevel != null
+                    ? coarsen(finerLevel, squareSize, pool)
+                    : computeLevel(grid, pool);
+            levels.put(squareSize, level);
+            if (isPowerOfTwo(squareSize)) {
+                deriveCoarserLevels(level, pool);
+            }
+        }
+        return level.getBrightness();
+    }
+
+    // Fills in every missing power of two level coarser than the given one.
+    private void deriveCoarserLevels(Level level, ForkJoinPool pool) {
+        while (level.rows >= LEVEL_FACTOR && level.cols >= LEVEL_FACTOR) {
+            int squareSize = level.squareSize * LEVEL_FACTOR;
+            Level coarserLevel = levels.get(squareSize);
+            if (coarserLevel == null) {
+                coarserLevel = coarsen(level, squareSize, pool);
+                levels.put(squareSize, coarserLevel);
+            }
+            level = coarserLevel;
+        }
+    }
+
+    /**
+     * Samples every cell of a grid to a bitmap of bitmapResolution x bitmapResolution blocks, the
+     * bitmaps {@link ImageBrightnessIntegral#getRegionBitmap} gives for the cells. The blocks of a
+     * row of cells are summed from its pixel rows, so this too needs no full resolution table.
+     *
+     * @param resolution       The number of cells per row.
+     * @param cellAspectRatio  The height to width ratio of the cells, or
+     *                         {@link TileGrid#PADDED_SQUARES} for padded squares.
+     * @param bitmapResolution The number of blocks per side of each bitmap.
+     * @param bitmaps          Receives the bitmap of every cell, indexed by row * cols + col.
+     * @param contrast         Receives the contrast of every cell, indexed by row * cols + col.
+     * @param pool             The pool to compute on, or null to compute serially.
+     */
+    public void sampleBitmaps(int resolution, double cellAspectRatio, int bitmapResolution,
+            long[][] bitmaps, double[] contrast, ForkJoinPool pool) {
+        double[][] brightness = getBrightnessGrid(resolution, cellAspectRatio, pool);
+        TileGrid grid = new TileGrid(imageWidth, imageHeight, resolution, cellAspectRatio);
+        int cols = grid.getCols();
+        if (brightnessIntegral != null) {
+            for (int row = 0; row < grid.getRows(); row++) {
+                for (int col = 0; col < cols; col++) {
+                    contrast[row * cols + col] = brightnessIntegral.getRegionBitmap(grid.getCellX(col),
+                            grid.getCellY(row), grid.getCellWidth(col), grid.getCellHeight(row),
+                            bitmapResolution, bitmaps[row * cols + col]);
+                }
+            }
+            return;
+        }
+        // the block columns are the same in every row of cells
+        int[] blockLefts = new int[cols * bitmapResolution];
+        int[] blockWidths = new int[cols * bitmapResolution];
+        for (int col = 0; col < cols; col++) {
+            int x = grid.getCellX(col);
+            int cellWidth = grid.getCellWidth(col);
+            for (int blockX = 0; blockX < bitmapResolution; blockX++) {
+                int block = col * bitmapResolution + blockX;
+                blockLefts[block] = x + (int) ((long) blockX * cellWidth / bitmapResolution);
+                blockWidths[block] = Math.max(1,
+                        x + (int) ((long) (blockX + 1) * cellWidth / bitmapResolution) - blockLefts[block]);
+            }
+        }
+        RowBandTask.process(pool, (fromRow, toRow) -> {
+            LumaKernel kernel = LumaKernel.get();
+            int[] rowPixels = new int[imageWidth];
+            int[] rowLumas = new int[imageWidth];
+            long[] rowPrefixSums = new long[imageWidth + 1];
+            long[] blockSums = new long[cols * bitmapResolution];
+            double[] minBrightness = new double[cols];
+            double[] maxBrightness = new double[cols];
+            for (int row = fromRow; row < toRow; row++) {
+                int y = grid.getCellY(row);
+                int cellHeight = grid.getCellHeight(row);
+                Arrays.fill(minBrightness, 1.0);
+                Arrays.fill(maxBrightness, 0.0);
+                for (int col = 0; col < cols; col++) {
+                    Arrays.fill(bitmaps[row * cols + col], 0);
+                }
+                for (int blockY = 0; blockY < bitmapResolution; blockY++) {
+                    int top = y + (int) ((long) blockY * cellHeight / bitmapResolution);
+                    int blockHeight = Math.max(1,
+                            y + (int) ((long) (blockY + 1) * cellHeight / bitmapResolution) - top);
+                    int insideTop = Math.max(0, top);
+                    int insideBottom = Math.min(imageHeight, top + blockHeight);
+                    Arrays.fill(blockSums, 0);
+                    for (int pixelY = insideTop; pixelY < insideBottom; pixelY++) {
+                        image.getRow(pixelY, rowPixels, 0);
+                        kernel.luma(rowPixels, 0, imageWidth, rowLumas);
+                        for (int x = 0; x < imageWidth; x++) {
+                            rowPrefixSums[x + 1] = rowPrefixSums[x] + rowLumas[x];
+                        }
+                        for (int block = 0; block < blockSums.length; block++) {
+                            int left = Math.max(0, blockLefts[block]);
+                            int right = Math.min(imageWidth, blockLefts[block] + blockWidths[block]);
+                            if (left < right) {
+                                blockSums[block] += rowPrefixSums[right] - rowPrefixSums[left];
+                            }
+                        }
+                    }
+                    int insideRows = Math.max(0, insideBottom - insideTop);
+                    for (int block = 0; block < blockSums.length; block++) {
+                        int col = block / bitmapResolution;
+                        int left = Math.max(0, blockLefts[block]);
+                        int right = Math.min(imageWidth, blockLefts[block] + blockWidths[block]);
+                        long area = (long) blockWidths[block] * blockHeight;
+                        long insideArea = (long) Math.max(0, right - left) * insideRows;
+                        double blockBrightness = ImageBrightnessIntegral.toBrightness(
+                                blockSums[block] + (area - insideArea) * ImageBrightnessIntegral.WHITE_LUMA, area);
+                        minBrightness[col] = Math.min(minBrightness[col], blockBrightness);
+                        maxBrightness[col] = Math.max(maxBrightness[col], blockBrightness);
+                        if (blockBrightness >= brightness[row][col]) {
+                            int bit = blockY * bitmapResolution + block % bitmapResolution;
+                            bitmaps[row * cols + col][bit >>> 6] |= 1L << (bit & 63);
+                        }
+                    }
+                }
+                for (int col = 0; col < cols; col++) {
+                    contrast[row * cols + col] = maxBrightness[col] - minBrightness[col];
+                }
+            }
+        }, 0, grid.getRows(), MIN_ROWS_PER_BAND);
+    }
+
+    // Computes a level from the brightness integral if the pyramid was built over one, otherwise
+    // from the pixel rows each row of cells covers
+    private Level computeLevel(TileGrid grid, ForkJoinPool pool) {
+        Level level = new Level(grid);
+        RowBandTask.process(pool, (fromRow, toRow) -> {
+            if (brightnessIntegral != null) {
+                for (int row = fromRow; row < toRow; row++) {
+                    for (int col = 0; col < level.cols; col++) {
+                        level.lumaSums[row * level.cols + col] = brightnessIntegral.getRegionLumaSum(
+                                grid.getCellX(col), grid.getCellY(row),
+                                grid.getCellWidth(col), grid.getCellHeight(row));
+                    }
+                }
+                return;
+            }
+            LumaKernel kernel = LumaKernel.get();
+            int[] rowPixels = new int[imageWidth];
+            for (int row = fromRow; row < toRow; row++) {
+                int top = Math.max(0, grid.getCellY(row));
+                int bottom = Math.min(imageHeight, grid.getCellY(row) + grid.getCellHeight(row));
+                for (int y = top; y < bottom; y++) {
+                    image.getRow(y, rowPixels, 0);
+                    for (int col = 0; col < level.cols; col++) {
+                        int left = Math.max(0, grid.getCellX(col));
+                        int right = Math.min(imageWidth, grid.getCellX(col) + grid.getCellWidth(col));
+                        if (left < right) {
+                            level.lumaSums[row * level.cols + col] += kernel.lumaSum(rowPixels, left, right - left);
+                        }
+                    }
+                }
+                // parts of cells outside the image count as white
+                for (int col = 0; col < level.cols; col++) {
+                    int left = Math.max(0, grid.getCellX(col));
+                    int right = Math.min(imageWidth, grid.getCellX(col) + grid.getCellWidth(col));
+                    long area = (long) grid.getCellWidth(col) * grid.getCellHeight(row);
+                    long insideArea = (long) Math.max(0, right - left) * Math.max(0, bottom - top);
+                    level.lumaSums[row * level.cols + col] += (area - insideArea) * ImageBrightnessIntegral.WHITE_LUMA;
+                }
+            }
+        }, 0, level.rows, MIN_ROWS_PER_BAND);
+        return level;
+    }
+
+    private static Level coarsen(Level finerLevel, int squareSize, ForkJoinPool pool) {
+        Level level = new Level(squareSize, finerLevel.rows / LEVEL_FACTOR,
+                finerLevel.cols / LEVEL_FACTOR, null);
+        long[] finerSums = finerLevel.lumaSums;
+        int finerCols = finerLevel.cols;
+        RowBandTask.process(pool, (fromRow, toRow) -> {
+            for (int row = fromRow; row < toRow; row++) {
+                int top = (row * LEVEL_FACTOR) * finerCols;
+                int bottom = top + finerCols;
+                for (int col = 0; col < level.cols; col++) {
+                    int left = col * LEVEL_FACTOR;
+                    level.lumaSums[row * level.cols + col] = finerSums[top + left]
+                            + finerSums[top + left + 1]
+                            + finerSums[bottom + left] + finerSums[bottom + left + 1];
+                }
+            }
+        }, 0, level.rows, MIN_ROWS_PER_BAND);
+        return level;
+    }
+
+    private static boolean isPowerOfTwo(int val) {
+        return (val & (val - 1)) == 0;
+    }
+
+    /**
+     * A single level of the pyramid, the fixed point luminance sums of its cells and the
+     * brightness grid derived from them on first use. Fitted levels keep their grid for the
+     * cell areas, padded square levels only need their square size.
+     */
+    private static class Level {
+        private final int squareSize;
+        private final int rows;
+        private final int cols;
+        private final TileGrid fittedGrid;
+        private final long[] lumaSums;
+        private double[][] brightness;
+
+        Level(TileGrid grid) {
+            this(grid.getSquareSize(), grid.getRows(), grid.getCols(),
+                    grid.isPaddedSquares() ? null : grid);
+        }
+
+        Level(int squareSize, int rows, int cols, TileGrid fittedGrid) {
+            this.squareSize = squareSize;
+            this.rows = rows;
+            this.cols = cols;
+            this.fittedGrid = fittedGrid;
+            this.lumaSums = new long[rows * cols];
+        }
+
+        double[][] getBrightness() {
+            if (brightness == null) {
+                long squareArea = (long) squareSize * squareSize;
+                brightness = new double[rows][cols];
+                for (int row = 0; row < rows; row++) {
+                    for (int col = 0; col < cols; col++) {
+                        long area = fittedGrid == null ? squareArea
+                                : (long) fittedGrid.getCellWidth(col) * fittedGrid.getCellHeight(row);
+                        brightness[row][col] =
+                                ImageBrightnessIntegral.toBrightness(lumaSums[row * cols + col], area);
+                    }
+                }
+            }
+            return brightness;
+        }
+    }
+}
@@ -1,63 +1,369 @@
 package image;
 
 import javax.imageio.ImageIO;
-import java.awt.*;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.logging.Logger;
 
 /**
  * A package-private class of the package image.
+ * Pixels are kept in a single row-major raster, either as packed ARGB ints or, for grayscale
+ * images, as one luminance byte per pixel that reads back as opaque gray. Both are read the
+ * same way, so every consumer of images accepts either. An image may also be a view over a
+ * rectangle of another image's raster, see {@link #getSubImage}.
  * @author Dan Nirel
  */
-public class Image {
+public class Image implements StripeSource {
+    /** The default memory ceiling of a decoded raster, larger images are subsampled */
+    public static final long DEFAULT_MAX_RASTER_BYTES = 1L << 30;
+    /** The number of decoded pixels kept per character cell side when decoding for a target */
+    public static final int MIN_SAMPLES_PER_CELL = 4;
+    private static final int SUBSAMPLING_FACTOR = 2;
 
-    private final Color[][] pixelArray;
+    private final PixelBuffer pixels;
+    private final int offset;
+    private final int stride;
     private final int width;
     private final int height;
+    private final long decodeNanos;
+    private final int subsampling;
 
     public Image(String filename) throws IOException {
-        BufferedImage im = ImageIO.read(new File(filename));
-        width = im.getWidth();
-        height = im.getHeight();
+        this(filename, 0, DEFAULT_MAX_RASTER_BYTES);
+    }
+
+    /**
+     * Decodes an image file into a raster no larger than the given target needs.
+     * The source is read with a power of two subsampling factor, the largest one that still
+     * leaves MIN_SAMPLES_PER_CELL decoded pixels per side of each character cell at the target
+     * resolution, raised further if needed to keep the raster within maxRasterBytes. Since the
+     * factor is a power of two, the padded dimensions shrink by exactly that factor and the
+     * ASCII grid keeps its shape.
+     *
+     * @param filename       The image file.
+     * @param targetWidth    The number of characters per row the image will be rendered at,
+     *                       0 to only subsample as the memory ceiling requires.
+     * @param maxRasterBytes The largest raster to decode, in bytes.
+     * @throws IOException if the file cannot be read or no reader supports it.
+     */
+    public Image(String filename, int targetWidth, long maxRasterBytes) throws IOException {
+        this(filename, targetWidth, maxRasterBytes, false);
+    }
 
+    /**
+     * Decodes an image file as {@link #Image(String, int, long)} does, optionally converting it
+     * to a grayscale image of one luminance byte per pixel right away, so the full color raster
+     * is not kept. A grayscale raster is a quarter of the size of a color one, but the reader
+     * still decodes the image in color first, so it is subsampled as a color raster would be.
+     *
+     * @param filename       The image file.
+     * @param targetWidth    The number of characters per row the image will be rendered at,
+     *                       0 to only subsample as the memory ceiling requires.
+     * @param maxRasterBytes The largest raster to decode, in bytes.
+     * @param grayscale      Whether to keep only the luminance of the pixels.
+     * @throws IOException if the file cannot be read or no reader supports it.
+     */
+    public Image(String filename, int targetWidth, long maxRasterBytes, boolean grayscale)
+            throws IOException {
+        this(filename, targetWidth, maxRasterBytes, grayscale, Long.MAX_VALUE);
+    }
 
-        pixelArray = new Color[height][width];
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                pixelArray[i][j]=new Color(im.getRGB(j, i));
+    /**
+     * Decodes an image file as {@link #Image(String, int, long, boolean)} does, keeping a color
+     * raster of at least offHeapRasterBytes in native memory instead of on the heap. Such an
+     * image is decoded row by row straight into native memory ({@link RowDecoder}), so for
+     * sequential JPEG and PNG files no image sized heap array is allocated at all; other files
+     * are still decoded whole on the heap first. The native memory is freed by
+     * {@link #release()}. Grayscale rasters are always kept on the heap.
+     *
+     * @param filename           The image file.
+     * @param targetWidth        The number of characters per row the image will be rendered at,
+     *                           0 to only subsample as the memory ceiling requires.
+     * @param maxRasterBytes     The largest raster to decode, in bytes.
+     * @param grayscale          Whether to keep only the luminance of the pixels.
+     * @param offHeapRasterBytes The smallest color raster to keep off the heap, in bytes.
+     * @throws IOException if the file cannot be read or no reader supports it.
+     */
+    public Image(String filename, int targetWidth, long maxRasterBytes, boolean grayscale,
+            long offHeapRasterBytes) throws IOException {
+        long start = System.nanoTime();
+        String layout;
+        int sourceWidth;
+        int sourceHeight;
+        File file = new File(filename);
+        if (!file.canRead()) {
+            throw new IOException("Can't read input file " + filename);
+        }
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("No image reader found for " + filename);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                sourceWidth = reader.getWidth(0);
+                sourceHeight = reader.getHeight(0);
+                ImageReadParam param = reader.getDefaultReadParam();
+                // the reader decodes to color either way, gray is only what is kept
+                subsampling = findSubsampling(sourceWidth, sourceHeight, targetWidth, maxRasterBytes);
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                width = RowDecoder.decodedSize(sourceWidth, subsampling);
+                height = RowDecoder.decodedSize(sourceHeight, subsampling);
+                if (!grayscale && isOffHeapRaster(width, height, offHeapRasterBytes)) {
+                    pixels = decodeOffHeap(reader, param, width, width * height);
+                    layout = "rows";
+                } else {
+                    BufferedImage im = reader.read(0, param);
+                    pixels = grayscale
+                            ? new PixelBuffer.Gray(RasterDecoder.toGray(im))
+                            : new PixelBuffer.Packed(RasterDecoder.toPackedRGB(im));
+                    layout = RasterDecoder.describeLayout(im);
+                }
+            } finally {
+                reader.dispose();
             }
         }
+        offset = 0;
+        stride = width;
+        decodeNanos = System.nanoTime() - start;
+        Logger.getGlobal().fine(String.format(
+                "Decoded \"%s\" (%dx%d, subsampled 1:%d to %dx%d, %s%s) in %.2f ms",
+                filename, sourceWidth, sourceHeight, subsampling, width, height,
+                layout, grayscale ? " to gray" : isOffHeap() ? " off-heap" : "",
+                decodeNanos / 1e6));
     }
 
-    public Image(Color[][] pixelArray, int width, int height) {
-        this.pixelArray = pixelArray;
+    /**
+     * Wraps an existing packed ARGB raster, the array is not copied.
+     *
+     * @param pixels Row-major packed ARGB pixels, at least width * height long.
+     * @param width  The image width.
+     * @param height The image height.
+     */
+    public Image(int[] pixels, int width, int height) {
+        this(new PixelBuffer.Packed(pixels), 0, width, width, height);
+    }
+
+    /**
+     * Wraps an existing grayscale raster, the array is not copied.
+     *
+     * @param levels Row-major luminance levels, 0 for black to 255 for white, at least
+     *               width * height long.
+     * @param width  The image width.
+     * @param height The image height.
+     */
+    public Image(byte[] levels, int width, int height) {
+        this(new PixelBuffer.Gray(levels), 0, width, width, height);
+    }
+
+    /**
+     * Wraps an existing pixel buffer of width * height pixels.
+     */
+    Image(PixelBuffer pixels, int width, int height) {
+        this(pixels, 0, width, width, height);
+    }
+
+    private Image(PixelBuffer pixels, int offset, int stride, int width, int height) {
+        if (offset + (long) (height - 1) * stride + width > pixels.length()) {
+            throw new IllegalArgumentException("Raster is smaller than the image dimensions");
+        }
+        this.pixels = pixels;
+        this.offset = offset;
+        this.stride = stride;
         this.width = width;
         this.height = height;
+        this.decodeNanos = 0;
+        this.subsampling = 1;
     }
 
+    @Override
     public int getWidth() {
         return width;
     }
 
+    @Override
     public int getHeight() {
         return height;
     }
 
-    public Color getPixel(int x, int y) {
-        return pixelArray[x][y];
+    /**
+     * Returns a view of the rows of the stripe, no pixels are copied.
+     */
+    @Override
+    public Image readStripe(int startY, int rowCount) {
+        return getSubImage(0, startY, width, rowCount);
     }
 
-    public void saveImage(String fileName){
-        // Initialize BufferedImage, assuming Color[][] is already properly populated.
-        BufferedImage bufferedImage = new BufferedImage(pixelArray[0].length, pixelArray.length,
-                BufferedImage.TYPE_INT_RGB);
-        // Set each pixel of the BufferedImage to the color from the Color[][].
-        for (int x = 0; x < pixelArray.length; x++) {
-            for (int y = 0; y < pixelArray[x].length; y++) {
-                bufferedImage.setRGB(y, x, pixelArray[x][y].getRGB());
+    /**
+     * Returns how long reading and decoding the source file took, 0 for in-memory images.
+     */
+    public long getDecodeNanos() {
+        return decodeNanos;
+    }
+
+    /**
+     * Returns the factor the source file was subsampled by when it was decoded, 1 if it was
+     * decoded at full resolution.
+     */
+    public int getSubsampling() {
+        return subsampling;
+    }
+
+    /**
+     * Returns true if the image keeps only the luminance of its pixels.
+     */
+    public boolean isGrayscale() {
+        return pixels instanceof PixelBuffer.Gray;
+    }
+
+    /**
+     * Returns true if the raster of the image is kept in native memory outside the heap.
+     */
+    public boolean isOffHeap() {
+        return pixels instanceof PixelBuffer.OffHeap;
+    }
+
+    /**
+     * Frees the native memory of an off-heap raster right away, instead of when the image is
+     * garbage collected. The raster is shared with every sub-image and stripe of this image, so
+     * none of them may be used afterwards. Does nothing for images kept on the heap.
+     */
+    public void release() {
+        if (isOffHeap()) {
+            ((PixelBuffer.OffHeap) pixels).release();
+        }
+    }
+
+    /**
+     * Returns the packed ARGB value of a pixel.
+     *
+     * @param x The pixel column.
+     * @param y The pixel row.
+     * @return The pixel as a packed ARGB int.
+     */
+    public int getRGB(int x, int y) {
+        return pixels.getRGB(offset + y * stride + x);
+    }
+
+    /**
+     * Returns a view of a rectangle of this image. The view shares this image's raster, so
+     * creating it costs O(1) regardless of its size.
+     *
+     * @param x      The left column of the rectangle.
+     * @param y      The top row of the rectangle.
+     * @param width  The rectangle width.
+     * @param height The rectangle height.
+     * @return An image backed by the same raster.
+     * @throws IllegalArgumentException if the rectangle is not inside this image.
+     */
+    public Image getSubImage(int x, int y, int width, int height) {
+        if (x < 0 || y < 0 || width <= 0 || height <= 0 ||
+                x + width > this.width || y + height > this.height) {
+            throw new IllegalArgumentException("Sub-image is out of the image bounds");
+        }
+        return new Image(pixels, offset + y * stride + x, stride, width, height);
+    }
+
+    /**
+     * Copies a single row of packed ARGB pixels into dst.
+     *
+     * @param y         The row to copy.
+     * @param dst       The destination array.
+     * @param dstOffset The index in dst the row is copied to.
+     */
+    public void getRow(int y, int[] dst, int dstOffset) {
+        getRows(y, 1, dst, dstOffset);
+    }
+
+    /**
+     * Copies a stripe of consecutive rows of packed ARGB pixels into dst.
+     *
+     * @param startY    The first row of the stripe.
+     * @param rowCount  The number of rows in the stripe.
+     * @param dst       The destination array, rows are stored back to back.
+     * @param dstOffset The index in dst the stripe is copied to.
+     */
+    public void getRows(int startY, int rowCount, int[] dst, int dstOffset) {
+        if (stride == width) {
+            pixels.copyRGB(offset + startY * stride, dst, dstOffset, rowCount * width);
+            return;
+        }
+        for (int row = 0; row < rowCount; row++) {
+            pixels.copyRGB(offset + (startY + row) * stride, dst, dstOffset + row * width, width);
+        }
+    }
+
+    /**
+     * Copies a single row of luminance levels of a grayscale image into dst.
+     *
+     * @throws IllegalStateException if the image is not grayscale.
+     */
+    void getGrayRow(int y, byte[] dst, int dstOffset) {
+        if (!isGrayscale()) {
+            throw new IllegalStateException("Image is not grayscale");
+        }
+        ((PixelBuffer.Gray) pixels).copyLevels(offset + y * stride, dst, dstOffset, width);
+    }
+
+    // Decodes the rows of an image into native memory as the reader produces them
+    private static PixelBuffer.OffHeap decodeOffHeap(ImageReader reader, ImageReadParam param,
+            int width, int length) throws IOException {
+        PixelBuffer.OffHeap offHeap = new PixelBuffer.OffHeap(length);
+        try {
+            RowDecoder.decode(reader, param, (y, row) -> offHeap.setRGB(y * width, row, 0, width));
+        } catch (IOException | RuntimeException e) {
+            offHeap.release();
+            throw e;
+        }
+        return offHeap;
+    }
+
+    // Finds the power of two subsampling factor for decoding a source of the given dimensions.
+    // Image indices are ints, so the decoded image is also kept within Integer.MAX_VALUE pixels.
+    private static int findSubsampling(int sourceWidth, int sourceHeight, int targetWidth,
+            long maxRasterBytes) {
+        int factor = 1;
+        if (targetWidth > 0) {
+            long neededWidth = (long) targetWidth * MIN_SAMPLES_PER_CELL;
+            int paddedWidth = ImagePadder.findNearestPowerOfTwo(sourceWidth);
+            while (paddedWidth / (factor * SUBSAMPLING_FACTOR) >= neededWidth) {
+                factor *= SUBSAMPLING_FACTOR;
             }
         }
+        while (factor < Math.max(sourceWidth, sourceHeight) &&
+                (rasterBytes(sourceWidth, sourceHeight, factor) > maxRasterBytes ||
+                rasterBytes(sourceWidth, sourceHeight, factor) / Integer.BYTES > Integer.MAX_VALUE)) {
+            factor *= SUBSAMPLING_FACTOR;
+        }
+        return factor;
+    }
+
+    private static long rasterBytes(int sourceWidth, int sourceHeight, int factor) {
+        long decodedWidth = (sourceWidth + factor - 1) / factor;
+        long decodedHeight = (sourceHeight + factor - 1) / factor;
+        return decodedWidth * decodedHeight * Integer.BYTES;
+    }
+
+    /**
+     * Returns true if a color raster of the given dimensions is to be kept off the heap.
+     */
+    static boolean isOffHeapRaster(int width, int height, long offHeapRasterBytes) {
+        return (long) width * height * Integer.BYTES >= offHeapRasterBytes;
+    }
+
+    public void saveImage(String fileName){
+        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] rgbPixels = new int[width * height];
+        getRows(0, height, rgbPixels, 0);
+        bufferedImage.setRGB(0, 0, width, height, rgbPixels, 0, width);
         File outputfile = new File(fileName+".jpeg");
         try {
             ImageIO.write(bufferedImage, "jpeg", outputfile);
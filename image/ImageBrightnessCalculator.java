@@ -1,32 +1,89 @@
 package image;
 
-import java.awt.Color;
+import java.util.Arrays;
 
 /**
  * A utility class for calculating the brightness of an image.
  */
 public class ImageBrightnessCalculator {
     private static final double MAX_GRAY_VAL = 255.0;
-    private static final double RED_FACTOR = 0.2126;
-    private static final double GREEN_FACTOR = 0.7152;
-    private static final double BLUE_FACTOR = 0.0722;
 
     /**
-     * Calculates the brightness of an image.
+     * Calculates the brightness of an image. The luminance is summed row by row in fixed point
+     * by the luminance kernel selected at startup, so the result is the same as
+     * {@link ImageBrightnessIntegral} gives for the whole image.
      *
      * @param image The image for which brightness is to be calculated.
      * @return The brightness value of the image.
      */
     public static double calculateImageBrightness(Image image) {
-        double pictureGraySum = 0;
-        for (int row = 0; row < image.getWidth(); row++) {
-            for (int col = 0; col < image.getHeight(); col++) {
-                Color pixelColor = image.getPixel(row, col);
-                pictureGraySum += pixelColor.getRed() * RED_FACTOR +
-                        pixelColor.getGreen() * GREEN_FACTOR +
-                        pixelColor.getBlue() * BLUE_FACTOR;
+        LumaKernel kernel = LumaKernel.get();
+        int width = image.getWidth();
+        int[] rowPixels = new int[width];
+        long lumaSum = 0;
+        for (int row = 0; row < image.getHeight(); row++) {
+            image.getRow(row, rowPixels, 0);
+            lumaSum += kernel.lumaSum(rowPixels, 0, width);
+        }
+        return ImageBrightnessIntegral.toBrightness(lumaSum, (long) width * image.getHeight());
+    }
+
+    /**
+     * Calculates the brightness and the average color of every cell of a grid, in a single
+     * pass over the pixels of the image. Parts of cells outside the image count as white.
+     * The brightness values are the same as the ones {@link ImageBrightnessIntegral} gives.
+     *
+     * @param image      The image the grid was laid out for.
+     * @param grid       The cells to calculate.
+     * @param brightness Receives the brightness of every cell, indexed by row then column.
+     * @param colors     Receives the average color of every cell as a packed 0xRRGGBB int,
+     *                   indexed by row then column.
+     */
+    public static void calculateSquaresBrightnessAndColor(Image image, TileGrid grid,
+            double[][] brightness, int[][] colors) {
+        int cols = grid.getCols();
+        long[] lumaSums = new long[cols];
+        long[] redSums = new long[cols];
+        long[] greenSums = new long[cols];
+        long[] blueSums = new long[cols];
+        int[] rowPixels = new int[image.getWidth()];
+        for (int row = 0; row < grid.getRows(); row++) {
+            int top = Math.max(0, grid.getCellY(row));
+            int bottom = Math.min(image.getHeight(), grid.getCellY(row) + grid.getCellHeight(row));
+            Arrays.fill(lumaSums, 0);
+            Arrays.fill(redSums, 0);
+            Arrays.fill(greenSums, 0);
+            Arrays.fill(blueSums, 0);
+            for (int y = top; y < bottom; y++) {
+                image.getRow(y, rowPixels, 0);
+                for (int col = 0; col < cols; col++) {
+                    int left = Math.max(0, grid.getCellX(col));
+                    int right = Math.min(image.getWidth(), grid.getCellX(col) + grid.getCellWidth(col));
+                    for (int x = left; x < right; x++) {
+                        int rgb = rowPixels[x];
+                        lumaSums[col] += ImageBrightnessIntegral.luma(rgb);
+                        redSums[col] += (rgb >> 16) & 0xFF;
+                        greenSums[col] += (rgb >> 8) & 0xFF;
+                        blueSums[col] += rgb & 0xFF;
+                    }
+                }
+            }
+            for (int col = 0; col < cols; col++) {
+                int left = Math.max(0, grid.getCellX(col));
+                int right = Math.min(image.getWidth(), grid.getCellX(col) + grid.getCellWidth(col));
+                long area = (long) grid.getCellWidth(col) * grid.getCellHeight(row);
+                long inside = (long) Math.max(0, right - left) * Math.max(0, bottom - top);
+                long outside = area - inside;
+                brightness[row][col] = ImageBrightnessIntegral.toBrightness(
+                        lumaSums[col] + outside * ImageBrightnessIntegral.WHITE_LUMA, area);
+                colors[row][col] = averageChannel(redSums[col], outside, area) << 16
+                        | averageChannel(greenSums[col], outside, area) << 8
+                        | averageChannel(blueSums[col], outside, area);
             }
         }
-        return pictureGraySum / (image.getHeight() * image.getWidth() * MAX_GRAY_VAL);
+    }
+
+    private static int averageChannel(long channelSum, long whitePixels, long area) {
+        return (int) ((channelSum + whitePixels * (long) MAX_GRAY_VAL + area / 2) / area);
     }
 }
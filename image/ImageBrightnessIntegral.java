@@ -0,0 +1,228 @@
+package image;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A summed-area table of the luminance of an image. It is built with a single pass over the
+ * pixels, after which the mean brightness of any rectangle costs four lookups.
+ * Luminance is kept in fixed point (the same factors as {@link ImageBrightnessCalculator},
+ * scaled by LUMA_SCALE) so sums are exact regardless of the region size.
+ * The table takes 8 bytes per pixel, so it is meant for bounded parts of an image such as a
+ * stripe; {@link BrightnessPyramid} sums whole images from their pixel rows instead.
+ */
+public class ImageBrightnessIntegral {
+    static final long RED_FACTOR = 2126;
+    static final long GREEN_FACTOR = 7152;
+    static final long BLUE_FACTOR = 722;
+    private static final long LUMA_SCALE = RED_FACTOR + GREEN_FACTOR + BLUE_FACTOR;
+    private static final long MAX_GRAY_VAL = 255;
+    static final long WHITE_LUMA = MAX_GRAY_VAL * LUMA_SCALE;
+    private static final int MIN_ROWS_PER_BAND = 64;
+    private static final int MIN_COLS_PER_BAND = 256;
+    // the longest array the JVM reliably allocates
+    private static final long MAX_TABLE_LENGTH = Integer.MAX_VALUE - 8;
+
+    private final long[] sums;
+    private final int width;
+    private final int height;
+
+    /**
+     * Builds the summed-area table of the given image.
+     *
+     * @param image The image to integrate.
+     */
+    public ImageBrightnessIntegral(Image image) {
+        this(image, null);
+    }
+
+    /**
+     * Builds the summed-area table of the given image, in parallel on the given pool.
+     * The sums are exact, so the table is identical to the serially built one.
+     *
+     * @param image The image to integrate.
+     * @param pool  The pool to build on, or null to build serially.
+     * @throws IllegalArgumentException if the table of the image would not fit in an array.
+     */
+    public ImageBrightnessIntegral(Image image, ForkJoinPool pool) {
+        width = image.getWidth();
+        height = image.getHeight();
+        long tableLength = (long) (width + 1) * (height + 1);
+        if (tableLength > MAX_TABLE_LENGTH) {
+            throw new IllegalArgumentException(String.format(
+                    "A %dx%d image is too large for a brightness integral", width, height));
+        }
+        sums = new long[(int) tableLength];
+        if (pool == null) {
+            integrate(image);
+        } else {
+            // every row is summed on its own, then the row sums are accumulated down each column
+            RowBandTask.process(pool, (fromRow, toRow) -> sumRows(image, fromRow, toRow),
+                    0, height, MIN_ROWS_PER_BAND);
+            RowBandTask.process(pool, this::accumulateColumns, 1, width + 1, MIN_COLS_PER_BAND);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Calculates the mean brightness of a rectangle. Parts of the rectangle that lie outside the
+     * image are treated as white, as if the image had been padded with white pixels.
+     *
+     * @param x            The left column of the rectangle, may be negative.
+     * @param y            The top row of the rectangle, may be negative.
+     * @param regionWidth  The rectangle width.
+     * @param regionHeight The rectangle height.
+     * @return The brightness of the rectangle, between 0 and 1.
+     */
+    public double getRegionBrightness(int x, int y, int regionWidth, int regionHeight) {
+        return toBrightness(getRegionLumaSum(x, y, regionWidth, regionHeight),
+                (long) regionWidth * regionHeight);
+    }
+
+    /**
+     * Sums the fixed point luminance of a rectangle, treating pixels outside the image as white.
+     * Sums of adjacent rectangles can be added exactly and turned into a brightness with
+     * {@link #toBrightness}.
+     *
+     * @param x            The left column of the rectangle, may be negative.
+     * @param y            The top row of the rectangle, may be negative.
+     * @param regionWidth  The rectangle width.
+     * @param regionHeight The rectangle height.
+     * @return The fixed point luminance sum of the rectangle.
+     */
+    public long getRegionLumaSum(int x, int y, int regionWidth, int regionHeight) {
+        int left = Math.max(0, x);
+        int top = Math.max(0, y);
+        int right = Math.min(width, x + regionWidth);
+        int bottom = Math.min(height, y + regionHeight);
+        long area = (long) regionWidth * regionHeight;
+        long insideArea = 0;
+        long lumaSum = 0;
+        if (left < right && top < bottom) {
+            insideArea = (long) (right - left) * (bottom - top);
+            lumaSum = sumOf(left, top, right, bottom);
+        }
+        return lumaSum + (area - insideArea) * WHITE_LUMA;
+    }
+
+    /**
+     * Samples a rectangle to a bitmap of resolution x resolution blocks, treating pixels outside
+     * the image as white. Bit (y * resolution + x) of the bitmap is set where block (x, y) is at
+     * least as bright as the whole rectangle, the layout glyph bitmaps are packed in.
+     * A rectangle narrower or shorter than the bitmap repeats its pixels.
+     *
+     * @param x            The left column of the rectangle, may be negative.
+     * @param y            The top row of the rectangle, may be negative.
+     * @param regionWidth  The rectangle width.
+     * @param regionHeight The rectangle height.
+     * @param resolution   The number of blocks per side of the bitmap.
+     * @param bits         Receives the bitmap, at least resolution * resolution bits long.
+     * @return The contrast of the rectangle, the brightness of its brightest block minus the
+     *         brightness of its darkest one.
+     */
+    public double getRegionBitmap(int x, int y, int regionWidth, int regionHeight, int resolution,
+            long[] bits) {
+        double regionBrightness = getRegionBrightness(x, y, regionWidth, regionHeight);
+        double minBrightness = 1.0;
+        double maxBrightness = 0.0;
+        Arrays.fill(bits, 0);
+        for (int blockY = 0; blockY < resolution; blockY++) {
+            int top = y + (int) ((long) blockY * regionHeight / resolution);
+            int blockHeight = Math.max(1, y + (int) ((long) (blockY + 1) * regionHeight / resolution) - top);
+            for (int blockX = 0; blockX < resolution; blockX++) {
+                int left = x + (int) ((long) blockX * regionWidth / resolution);
+                int blockWidth = Math.max(1, x + (int) ((long) (blockX + 1) * regionWidth / resolution) - left);
+                double blockBrightness = getRegionBrightness(left, top, blockWidth, blockHeight);
+                minBrightness = Math.min(minBrightness, blockBrightness);
+                maxBrightness = Math.max(maxBrightness, blockBrightness);
+                if (blockBrightness >= regionBrightness) {
+                    int bit = blockY * resolution + blockX;
+                    bits[bit >>> 6] |= 1L << (bit & 63);
+                }
+            }
+        }
+        return maxBrightness - minBrightness;
+    }
+
+    /**
+     * Converts a fixed point luminance sum to a brightness between 0 and 1.
+     *
+     * @param lumaSum The luminance sum, as returned by {@link #getRegionLumaSum}.
+     * @param area    The number of pixels the sum covers.
+     * @return The mean brightness of those pixels.
+     */
+    public static double toBrightness(long lumaSum, long area) {
+        return (double) lumaSum / (area * WHITE_LUMA);
+    }
+
+    private void integrate(Image image) {
+        LumaKernel kernel = LumaKernel.get();
+        int stride = width + 1;
+        int[] rowPixels = new int[width];
+        int[] rowLumas = new int[width];
+        for (int row = 0; row < height; row++) {
+            image.getRow(row, rowPixels, 0);
+            kernel.luma(rowPixels, 0, width, rowLumas);
+            long rowSum = 0;
+            int above = row * stride + 1;
+            int current = above + stride;
+            for (int col = 0; col < width; col++) {
+                rowSum += rowLumas[col];
+                sums[current + col] = sums[above + col] + rowSum;
+            }
+        }
+    }
+
+    private void sumRows(Image image, int fromRow, int toRow) {
+        LumaKernel kernel = LumaKernel.get();
+        int stride = width + 1;
+        int[] rowPixels = new int[width];
+        int[] rowLumas = new int[width];
+        for (int row = fromRow; row < toRow; row++) {
+            image.getRow(row, rowPixels, 0);
+            kernel.luma(rowPixels, 0, width, rowLumas);
+            long rowSum = 0;
+            int current = (row + 1) * stride + 1;
+            for (int col = 0; col < width; col++) {
+                rowSum += rowLumas[col];
+                sums[current + col] = rowSum;
+            }
+        }
+    }
+
+    private void accumulateColumns(int fromCol, int toCol) {
+        int stride = width + 1;
+        for (int row = 2; row <= height; row++) {
+            int current = row * stride;
+            int above = current - stride;
+            for (int col = fromCol; col < toCol; col++) {
+                sums[current + col] += sums[above + col];
+            }
+        }
+    }
+
+    /**
+     * Sums the fixed point luminance of the half open rectangle [left, right) x [top, bottom).
+     */
+    private long sumOf(int left, int top, int right, int bottom) {
+        int stride = width + 1;
+        return sums[bottom * stride + right] - sums[top * stride + right]
+                - sums[bottom * stride + left] + sums[top * stride + left];
+    }
+
+    /**
+     * Returns the fixed point luminance of a packed ARGB pixel.
+     */
+    static long luma(int rgb) {
+        return ((rgb >> 16) & 0xFF) * RED_FACTOR +
+                ((rgb >> 8) & 0xFF) * GREEN_FACTOR +
+                (rgb & 0xFF) * BLUE_FACTOR;
+    }
+}
@@ -1,17 +1,20 @@
 package image;
 
-import java.awt.Color;
+import java.util.Arrays;
 
 /**
  * A utility class for padding images.
  */
 public class ImagePadder {
+    private static final int WHITE_RGB = 0xFFFFFFFF;
+    private static final byte WHITE_LEVEL = (byte) 0xFF;
 
     /**
      * Pads the given image to the nearest power of two dimensions.
      *
      * @param image The original image to pad.
-     * @return A new image padded to the nearest power of two dimensions.
+     * @return A new image padded to the nearest power of two dimensions, grayscale if the
+     *         original image is.
      * @throws IllegalArgumentException if the input image is null.
      */
     public static Image padImageToNearestPowerOfTwo(Image image) {
@@ -21,7 +24,11 @@ public class ImagePadder {
 
         int paddedImageHeight = findNearestPowerOfTwo(image.getHeight());
         int paddedImageWidth = findNearestPowerOfTwo(image.getWidth());
-        Color[][] paddedImageData = getPaddedImageData(image, paddedImageHeight, paddedImageWidth);
+        if (image.isGrayscale()) {
+            byte[] paddedImageLevels = getPaddedImageLevels(image, paddedImageHeight, paddedImageWidth);
+            return new Image(paddedImageLevels, paddedImageWidth, paddedImageHeight);
+        }
+        int[] paddedImageData = getPaddedImageData(image, paddedImageHeight, paddedImageWidth);
         return new Image(paddedImageData, paddedImageWidth, paddedImageHeight);
     }
 
@@ -31,35 +38,58 @@ public class ImagePadder {
      * @param originalImage     The original image.
      * @param paddedImageHeight The padded image height.
      * @param paddedImageWidth  The padded image width.
-     * @return The padded image data.
+     * @return The padded image data as a packed ARGB raster.
      */
-    private static Color[][] getPaddedImageData(Image orignalImage,
+    private static int[] getPaddedImageData(Image originalImage,
             int paddedImageHeight,
             int paddedImageWidth) {
-        Color[][] paddedImageData = new Color[paddedImageHeight][paddedImageWidth];
-        for (int row = 0; row < paddedImageHeight; row++) {
-            for (int col = 0; col < paddedImageWidth; col++) {
-                paddedImageData[row][col] = Color.WHITE;
-            }
-        }
+        int[] paddedImageData = new int[paddedImageHeight * paddedImageWidth];
+        Arrays.fill(paddedImageData, WHITE_RGB);
 
-        int heightDiff = paddedImageHeight - orignalImage.getHeight();
-        int widthDiff = paddedImageHeight - orignalImage.getWidth();
+        int heightDiff = paddedImageHeight - originalImage.getHeight();
+        int widthDiff = paddedImageWidth - originalImage.getWidth();
 
-        for (int row = 0; row < orignalImage.getHeight(); row++) {
-            for (int col = 0; col < orignalImage.getWidth(); col++) {
-                paddedImageData[row + (heightDiff / 2)][col + (widthDiff / 2)] = 
-                    orignalImage.getPixel(row, col);
-            }
+        for (int row = 0; row < originalImage.getHeight(); row++) {
+            originalImage.getRow(row, paddedImageData,
+                    (row + (heightDiff / 2)) * paddedImageWidth + (widthDiff / 2));
         }
 
         return paddedImageData;
     }
 
     /**
-     * Finds the nearest power of two for a given value.
+     * Calculates the padded luminance levels of a grayscale image with white for padding.
+     *
+     * @param originalImage     The original grayscale image.
+     * @param paddedImageHeight The padded image height.
+     * @param paddedImageWidth  The padded image width.
+     * @return The padded image data as a grayscale raster.
+     */
+    private static byte[] getPaddedImageLevels(Image originalImage,
+            int paddedImageHeight,
+            int paddedImageWidth) {
+        byte[] paddedImageLevels = new byte[paddedImageHeight * paddedImageWidth];
+        Arrays.fill(paddedImageLevels, WHITE_LEVEL);
+
+        int heightDiff = paddedImageHeight - originalImage.getHeight();
+        int widthDiff = paddedImageWidth - originalImage.getWidth();
+
+        for (int row = 0; row < originalImage.getHeight(); row++) {
+            originalImage.getGrayRow(row, paddedImageLevels,
+                    (row + (heightDiff / 2)) * paddedImageWidth + (widthDiff / 2));
+        }
+
+        return paddedImageLevels;
+    }
+
+    /**
+     * Finds the nearest power of two for a given value, which is the size an image dimension
+     * of that value is padded to.
+     *
+     * @param val The original dimension.
+     * @return The smallest power of two that is not smaller than val.
      */
-    private static int findNearestPowerOfTwo(int val) {
+    public static int findNearestPowerOfTwo(int val) {
         return (int) Math.pow(2, Math.ceil(log2(val)));
     }
 
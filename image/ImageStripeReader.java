@@ -0,0 +1,170 @@
+package image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads an image file one stripe at a time, in a single forward pass over the file.
+ * A background thread decodes the file with {@link RowDecoder} and queues its rows as they are
+ * decoded; each stripe takes its rows off the queue, so stripes must be read from the top down
+ * without overlapping. At most QUEUE_PIXELS decoded pixels wait in the queue, so memory stays at
+ * about a stripe for images whose format can be decoded row by row.
+ */
+public class ImageStripeReader implements StripeSource, AutoCloseable {
+    private static final int QUEUE_PIXELS = 1 << 20;
+    private static final int MIN_QUEUE_ROWS = 2;
+    // queued after the last row, or after a failure
+    private static final int[] END_OF_IMAGE = new int[0];
+
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+    private final BlockingQueue<int[]> rows;
+    private final Thread decoder;
+    private volatile IOException failure;
+    private volatile boolean closed;
+    private int nextRow;
+
+    /**
+     * Opens an image file for reading stripes. Only the header is read here, the rows are
+     * decoded in the background from then on.
+     *
+     * @param filename The image file.
+     * @throws IOException if the file cannot be read or no reader supports it.
+     */
+    public ImageStripeReader(String filename) throws IOException {
+        File file = new File(filename);
+        if (!file.canRead()) {
+            throw new IOException("Can't read input file " + filename);
+        }
+        input = ImageIO.createImageInputStream(file);
+        Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+        if (readers == null || !readers.hasNext()) {
+            if (input != null) {
+                input.close();
+            }
+            throw new IOException("No image reader found for " + filename);
+        }
+        reader = readers.next();
+        try {
+            reader.setInput(input, true, true);
+            width = reader.getWidth(0);
+            height = reader.getHeight(0);
+        } catch (IOException e) {
+            reader.dispose();
+            input.close();
+            throw e;
+        }
+        rows = new ArrayBlockingQueue<>(Math.max(MIN_QUEUE_ROWS, QUEUE_PIXELS / Math.max(1, width)));
+        decoder = new Thread(this::decode, "stripe-decoder-" + file.getName());
+        decoder.setDaemon(true);
+        decoder.start();
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Reads the next stripe, waiting for its rows to be decoded. Rows above startY that were not
+     * read are skipped.
+     *
+     * @throws IOException if the file cannot be decoded, or the stripe starts above a row that
+     *                     was already read.
+     */
+    @Override
+    public Image readStripe(int startY, int rowCount) throws IOException {
+        if (startY < nextRow) {
+            throw new IOException("Stripes must be read from the top down, row " + startY
+                    + " was already passed");
+        }
+        while (nextRow < startY) {
+            takeRow();
+        }
+        int[] stripe = new int[rowCount * width];
+        for (int row = 0; row < rowCount; row++) {
+            System.arraycopy(takeRow(), 0, stripe, row * width, width);
+        }
+        return new Image(stripe, width, rowCount);
+    }
+
+    /**
+     * Stops decoding and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        // the reader may only be used by the thread decoding, which aborts at the next row
+        closed = true;
+        decoder.interrupt();
+        try {
+            decoder.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        reader.dispose();
+        input.close();
+    }
+
+    private int[] takeRow() throws IOException {
+        int[] row;
+        try {
+            row = rows.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading a stripe");
+        }
+        if (row == END_OF_IMAGE) {
+            // keep every later read failing the same way
+            rows.offer(END_OF_IMAGE);
+            if (failure != null) {
+                throw new IOException("Failed to decode the image", failure);
+            }
+            throw new EOFException("Stripe is below the last row of the image");
+        }
+        nextRow++;
+        return row;
+    }
+
+    // Runs on the decoder thread, queueing a copy of every row and the end marker last.
+    private void decode() {
+        try {
+            RowDecoder.decode(reader, reader.getDefaultReadParam(), (y, pixels) -> {
+                if (closed) {
+                    throw new InterruptedIOException("Stripe reader closed");
+                }
+                try {
+                    rows.put(pixels.clone());
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Stripe reader closed");
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            if (!closed) {
+                failure = e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+        } finally {
+            if (!closed) {
+                try {
+                    rows.put(END_OF_IMAGE);
+                } catch (InterruptedException e) {
+                    // closed while the queue was full, nobody is waiting for the end
+                }
+            }
+        }
+    }
+}
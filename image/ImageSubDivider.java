@@ -1,7 +1,5 @@
 package image;
 
-import java.awt.Color;
-
 /**
  * A utility class to divide an image into smaller squares.
  */
@@ -12,7 +10,7 @@ public class ImageSubDivider {
      *
      * @param originalImage The original image to be divided.
      * @param squareSize    The size of each square.
-     * @return A 2D array of Image objects representing the divided image squares.
+     * @return A 2D array of Image views representing the divided image squares.
      */
     public static Image[][] divideImageToSquares(Image originalImage, int squareSize) {
         int rows = originalImage.getHeight() / squareSize;
@@ -33,8 +31,8 @@ public class ImageSubDivider {
     }
 
     /**
-     * Creates a sub-image from the original image based on the specified
-     * parameters.
+     * Creates a sub-image view of the original image based on the specified
+     * parameters. The view shares the original raster, no pixels are copied.
      *
      * @param originalImage The original image from which the sub-image is created.
      * @param squareSize    The size of the square sub-image.
@@ -47,13 +45,6 @@ public class ImageSubDivider {
             int squareSize,
             int startingRow,
             int startingCol) {
-        Color[][] subImageData = new Color[squareSize][squareSize];
-        for (int row = 0; row < squareSize; row++) {
-            for (int col = 0; col < squareSize; col++) {
-                subImageData[row][col] = originalImage.getPixel(row + startingRow, col + startingCol);
-            }
-        }
-
-        return new Image(subImageData, squareSize, squareSize);
+        return originalImage.getSubImage(startingCol, startingRow, squareSize, squareSize);
     }
 }
@@ -0,0 +1,129 @@
+package image;
+
+import java.util.logging.Logger;
+
+/**
+ * The per pixel luminance kernels, in the fixed point of {@link ImageBrightnessIntegral}.
+ * Three implementations give identical results:
+ * <ul>
+ *     <li>SCALAR computes each pixel on its own in long arithmetic.</li>
+ *     <li>BLOCKED computes in int arithmetic over blocks short enough that an int sum cannot
+ *     overflow, in straight loops that HotSpot compiles to SIMD instructions.</li>
+ *     <li>VECTOR computes the same blocks with explicit vectors of the jdk.incubator.vector
+ *     API. It lives in the vector source root and is loaded reflectively, so it is null when
+ *     the class was not compiled or the JVM runs without --add-modules jdk.incubator.vector.</li>
+ * </ul>
+ * The kernel is selected once at startup by the system property ascii_art.lumaKernel, "vector"
+ * by default, falling back to BLOCKED when VECTOR is not available.
+ */
+abstract class LumaKernel {
+    static final String KERNEL_PROPERTY = "ascii_art.lumaKernel";
+    static final String SCALAR_NAME = "scalar";
+    static final String BLOCKED_NAME = "blocked";
+    static final String VECTOR_NAME = "vector";
+    private static final String VECTOR_CLASS_NAME = "image.VectorLumaKernel";
+
+    static final LumaKernel SCALAR = new Scalar();
+    static final LumaKernel BLOCKED = new Blocked();
+    static final LumaKernel VECTOR = loadVector();
+    private static final LumaKernel SELECTED = select();
+
+    /**
+     * Returns the kernel selected at startup.
+     */
+    static LumaKernel get() {
+        return SELECTED;
+    }
+
+    /**
+     * Writes the fixed point luminance of pixels [from, from + count) to lumas[0, count).
+     */
+    abstract void luma(int[] pixels, int from, int count, int[] lumas);
+
+    /**
+     * Sums the fixed point luminance of pixels [from, from + count).
+     */
+    abstract long lumaSum(int[] pixels, int from, int count);
+
+    private static LumaKernel select() {
+        String name = System.getProperty(KERNEL_PROPERTY, VECTOR_NAME);
+        if (name.equals(SCALAR_NAME)) {
+            return SCALAR;
+        }
+        if (name.equals(VECTOR_NAME)) {
+            if (VECTOR != null) {
+                return VECTOR;
+            }
+            Logger.getGlobal().fine(String.format("The vector luminance kernel is not available, using \"%s\"",
+                    BLOCKED_NAME));
+        } else if (!name.equals(BLOCKED_NAME)) {
+            Logger.getGlobal().warning(String.format("Unknown luminance kernel \"%s\", using \"%s\"",
+                    name, BLOCKED_NAME));
+        }
+        return BLOCKED;
+    }
+
+    // The Vector API classes only resolve with jdk.incubator.vector in the module graph, so
+    // loading the kernel fails with a LinkageError without it.
+    private static LumaKernel loadVector() {
+        try {
+            return (LumaKernel) Class.forName(VECTOR_CLASS_NAME).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static final class Scalar extends LumaKernel {
+        @Override
+        void luma(int[] pixels, int from, int count, int[] lumas) {
+            for (int i = 0; i < count; i++) {
+                lumas[i] = (int) ImageBrightnessIntegral.luma(pixels[from + i]);
+            }
+        }
+
+        @Override
+        long lumaSum(int[] pixels, int from, int count) {
+            long sum = 0;
+            for (int i = from; i < from + count; i++) {
+                sum += ImageBrightnessIntegral.luma(pixels[i]);
+            }
+            return sum;
+        }
+    }
+
+    private static final class Blocked extends LumaKernel {
+        private static final int RED_FACTOR = (int) ImageBrightnessIntegral.RED_FACTOR;
+        private static final int GREEN_FACTOR = (int) ImageBrightnessIntegral.GREEN_FACTOR;
+        private static final int BLUE_FACTOR = (int) ImageBrightnessIntegral.BLUE_FACTOR;
+        // the most white pixels whose luminance sum still fits in an int
+        private static final int BLOCK_SIZE = (int) (Integer.MAX_VALUE / ImageBrightnessIntegral.WHITE_LUMA);
+
+        @Override
+        void luma(int[] pixels, int from, int count, int[] lumas) {
+            for (int i = 0; i < count; i++) {
+                int rgb = pixels[from + i];
+                lumas[i] = ((rgb >>> 16) & 0xFF) * RED_FACTOR
+                        + ((rgb >>> 8) & 0xFF) * GREEN_FACTOR
+                        + (rgb & 0xFF) * BLUE_FACTOR;
+            }
+        }
+
+        @Override
+        long lumaSum(int[] pixels, int from, int count) {
+            long sum = 0;
+            int end = from + count;
+            for (int blockStart = from; blockStart < end; blockStart += BLOCK_SIZE) {
+                int blockEnd = Math.min(end, blockStart + BLOCK_SIZE);
+                int blockSum = 0;
+                for (int i = blockStart; i < blockEnd; i++) {
+                    int rgb = pixels[i];
+                    blockSum += ((rgb >>> 16) & 0xFF) * RED_FACTOR
+                            + ((rgb >>> 8) & 0xFF) * GREEN_FACTOR
+                            + (rgb & 0xFF) * BLUE_FACTOR;
+                }
+                sum += blockSum;
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package image;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.logging.Logger;
+
+/**
+ * The storage behind an {@link Image}: a row-major array of pixels that are read back as packed
+ * ARGB ints, whatever form they are kept in.
+ */
+abstract class PixelBuffer {
+    /**
+     * Returns the number of pixels in the buffer.
+     */
+    abstract int length();
+
+    /**
+     * Returns the number of bytes each pixel takes.
+     */
+    abstract int bytesPerPixel();
+
+    /**
+     * Returns the packed ARGB value of the pixel at the given index.
+     */
+    abstract int getRGB(int index);
+
+    /**
+     * Copies count pixels starting at index into dst as packed ARGB ints.
+     */
+    abstract void copyRGB(int index, int[] dst, int dstOffset, int count);
+
+    /**
+     * Pixels kept as packed ARGB ints.
+     */
+    static final class Packed extends PixelBuffer {
+        private final int[] pixels;
+
+        Packed(int[] pixels) {
+            this.pixels = pixels;
+        }
+
+        @Override
+        int length() {
+            return pixels.length;
+        }
+
+        @Override
+        int bytesPerPixel() {
+            return Integer.BYTES;
+        }
+
+        @Override
+        int getRGB(int index) {
+            return pixels[index];
+        }
+
+        @Override
+        void copyRGB(int index, int[] dst, int dstOffset, int count) {
+            System.arraycopy(pixels, index, dst, dstOffset, count);
+        }
+    }
+
+    /**
+     * Pixels kept as 8 bit luminance levels, read back as opaque gray.
+     */
+    static final class Gray extends PixelBuffer {
+        private static final int OPAQUE_ALPHA = 0xFF000000;
+        private static final int GRAY_TO_RGB = 0x010101;
+
+        private final byte[] levels;
+
+        Gray(byte[] levels) {
+            this.levels = levels;
+        }
+
+        @Override
+        int length() {
+            return levels.length;
+        }
+
+        @Override
+        int bytesPerPixel() {
+            return Byte.BYTES;
+        }
+
+        @Override
+        int getRGB(int index) {
+            return OPAQUE_ALPHA | (levels[index] & 0xFF) * GRAY_TO_RGB;
+        }
+
+        @Override
+        void copyRGB(int index, int[] dst, int dstOffset, int count) {
+            for (int i = 0; i < count; i++) {
+                dst[dstOffset + i] = OPAQUE_ALPHA | (levels[index + i] & 0xFF) * GRAY_TO_RGB;
+            }
+        }
+
+        /**
+         * Copies count luminance levels starting at index into dst.
+         */
+        void copyLevels(int index, byte[] dst, int dstOffset, int count) {
+            System.arraycopy(levels, index, dst, dstOffset, count);
+        }
+    }
+
+    /**
+     * Pixels kept as packed ARGB ints in native memory outside the Java heap, so the raster itself
+     * is never a humongous heap allocation. A direct buffer holds at most 2 GiB, so the pixels are
+     * split into bands of BAND_PIXELS, which lets a raster hold any int number of pixels.
+     * The memory is freed right away by {@link #release()}, or by the garbage collector if the
+     * buffer is dropped without being released.
+     * Direct memory is limited by -XX:MaxDirectMemorySize, which defaults to the maximal heap size.
+     */
+    static final class OffHeap extends PixelBuffer {
+        private static final int BAND_SHIFT = 24;
+        private static final int BAND_PIXELS = 1 << BAND_SHIFT;
+        private static final int BAND_MASK = BAND_PIXELS - 1;
+        private static final MethodHandle INVOKE_CLEANER = findInvokeCleaner();
+
+        private final int length;
+        private ByteBuffer[] memory;
+        private IntBuffer[] bands;
+
+        /**
+         * Allocates an off-heap buffer of the given number of pixels.
+         */
+        OffHeap(int length) {
+            this.length = length;
+            int bandCount = (int) (((long) length + BAND_MASK) >>> BAND_SHIFT);
+            memory = new ByteBuffer[bandCount];
+            bands = new IntBuffer[bandCount];
+            for (int band = 0; band < bandCount; band++) {
+                int bandLength = Math.min(BAND_PIXELS, length - band * BAND_PIXELS);
+                memory[band] = ByteBuffer.allocateDirect(bandLength * Integer.BYTES)
+                        .order(ByteOrder.nativeOrder());
+                bands[band] = memory[band].asIntBuffer();
+            }
+        }
+
+        @Override
+        int length() {
+            return length;
+        }
+
+        @Override
+        int bytesPerPixel() {
+            return Integer.BYTES;
+        }
+
+        @Override
+        int getRGB(int index) {
+            return bands()[index >>> BAND_SHIFT].get(index & BAND_MASK);
+        }
+
+        @Override
+        void copyRGB(int index, int[] dst, int dstOffset, int count) {
+            IntBuffer[] bands = bands();
+            while (count > 0) {
+                int bandIndex = index & BAND_MASK;
+                int run = Math.min(count, BAND_PIXELS - bandIndex);
+                bands[index >>> BAND_SHIFT].get(bandIndex, dst, dstOffset, run);
+                index += run;
+                dstOffset += run;
+                count -= run;
+            }
+        }
+
+        /**
+         * Copies count packed ARGB pixels from src into the buffer starting at index.
+         */
+        void setRGB(int index, int[] src, int srcOffset, int count) {
+            IntBuffer[] bands = bands();
+            while (count > 0) {
+                int bandIndex = index & BAND_MASK;
+                int run = Math.min(count, BAND_PIXELS - bandIndex);
+                bands[index >>> BAND_SHIFT].put(bandIndex, src, srcOffset, run);
+                index += run;
+                srcOffset += run;
+                count -= run;
+            }
+        }
+
+        /**
+         * Frees the native memory of the buffer. Any later access throws IllegalStateException,
+         * so the buffer must not be released while it is being read.
+         */
+        void release() {
+            ByteBuffer[] released = memory;
+            memory = null;
+            bands = null;
+            if (released == null || INVOKE_CLEANER == null) {
+                return;
+            }
+            try {
+                for (ByteBuffer band : released) {
+                    INVOKE_CLEANER.invokeExact(band);
+                }
+            } catch (Throwable e) {
+                Logger.getGlobal().warning("Failed to free an off-heap raster: " + e);
+            }
+        }
+
+        private IntBuffer[] bands() {
+            IntBuffer[] current = bands;
+            if (current == null) {
+                throw new IllegalStateException("Raster has been released");
+            }
+            return current;
+        }
+
+        // Java 17 has no public way to free a direct buffer, Unsafe.invokeCleaner runs its cleaner
+        // early. Without it the memory is freed once the buffer is garbage collected.
+        private static MethodHandle findInvokeCleaner() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                return MethodHandles.lookup()
+                        .findVirtual(unsafeClass, "invokeCleaner",
+                                MethodType.methodType(void.class, ByteBuffer.class))
+                        .bindTo(theUnsafe.get(null));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                Logger.getGlobal().fine("Off-heap rasters are freed by the garbage collector: " + e);
+                return null;
+            }
+        }
+    }
+}
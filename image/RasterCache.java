@@ -0,0 +1,241 @@
+package image;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * An on-disk cache of decoded rasters, so an image that was already decoded is memory mapped
+ * back instead of being decoded again.
+ * Entries are keyed by the source file's path, size and modification time, together with the
+ * decode parameters, so an edited source is never served stale. Every hit refreshes the entry's
+ * modification time, and whenever the cache grows past its disk budget the least recently used
+ * entries are deleted.
+ */
+public class RasterCache {
+    private static final String ENTRY_SUFFIX = ".raster";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int FILE_MAGIC = 0x52415332;
+    private static final int HEADER_INTS = 4;
+    private static final String KEY_DIGEST = "SHA-256";
+
+    private final Path directory;
+    private final long diskBudgetBytes;
+
+    /**
+     * Constructs a cache stored in the given directory, creating it if needed, and trims it to
+     * the given budget.
+     *
+     * @param directory       The directory the cached rasters are kept in.
+     * @param diskBudgetBytes The most disk space the cached rasters may take.
+     * @throws IOException if the directory cannot be created or read.
+     */
+    public RasterCache(Path directory, long diskBudgetBytes) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.diskBudgetBytes = diskBudgetBytes;
+        evict();
+    }
+
+    /**
+     * Loads an image, from the cache if it was decoded with the same parameters before, and
+     * otherwise by decoding it and adding the result to the cache.
+     * See {@link Image#Image(String, int, long)} for the parameters.
+     *
+     * @throws IOException if the image cannot be decoded.
+     */
+    public Image load(String filename, int targetWidth, long maxRasterBytes) throws IOException {
+        return load(filename, targetWidth, maxRasterBytes, false);
+    }
+
+    /**
+     * Loads an image as {@link #load(String, int, long)} does, optionally as a grayscale image.
+     * Grayscale and color rasters of the same file are cached separately.
+     * See {@link Image#Image(String, int, long, boolean)} for the parameters.
+     *
+     * @throws IOException if the image cannot be decoded.
+     */
+    public Image load(String filename, int targetWidth, long maxRasterBytes, boolean grayscale)
+            throws IOException {
+        return load(filename, targetWidth, maxRasterBytes, grayscale, Long.MAX_VALUE);
+    }
+
+    /**
+     * Loads an image as {@link #load(String, int, long, boolean)} does, keeping a color raster of
+     * at least offHeapRasterBytes off the heap whether it is decoded or read from the cache.
+     * See {@link Image#Image(String, int, long, boolean, long)} for the parameters.
+     *
+     * @throws IOException if the image cannot be decoded.
+     */
+    public Image load(String filename, int targetWidth, long maxRasterBytes, boolean grayscale,
+            long offHeapRasterBytes) throws IOException {
+        Path source = Paths.get(filename).toAbsolutePath();
+        Path entry = null;
+        try {
+            entry = directory.resolve(entryName(source, targetWidth, maxRasterBytes, grayscale));
+            Image cached = readEntry(entry, offHeapRasterBytes);
+            if (cached != null) {
+                return cached;
+            }
+        } catch (IOException e) {
+            // a missing or unreadable entry is just a cache miss
+        }
+
+        Image image = new Image(filename, targetWidth, maxRasterBytes, grayscale, offHeapRasterBytes);
+        if (entry != null) {
+            try {
+                writeEntry(entry, image);
+                evict();
+            } catch (IOException e) {
+                Logger.getGlobal().warning(String.format("Failed to cache the raster of \"%s\"", filename));
+            }
+        }
+        return image;
+    }
+
+    private static String entryName(Path source, int targetWidth, long maxRasterBytes,
+            boolean grayscale) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        String key = source + "\n" + attributes.size() + "\n" + attributes.lastModifiedTime().toMillis()
+                + "\n" + targetWidth + "\n" + maxRasterBytes + "\n" + grayscale;
+        try {
+            byte[] digest = MessageDigest.getInstance(KEY_DIGEST).digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest) {
+                name.append(String.format("%02x", b));
+            }
+            return name.append(ENTRY_SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Maps an entry back into an image, null if there is no valid entry
+    private static Image readEntry(Path entry, long offHeapRasterBytes) throws IOException {
+        if (!Files.exists(entry)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.nativeOrder());
+            if (mapped.remaining() < HEADER_INTS * Integer.BYTES || mapped.getInt() != FILE_MAGIC) {
+                return null;
+            }
+            int width = mapped.getInt();
+            int height = mapped.getInt();
+            int bytesPerPixel = mapped.getInt();
+            if ((bytesPerPixel != Byte.BYTES && bytesPerPixel != Integer.BYTES) ||
+                    (long) width * height * bytesPerPixel != mapped.remaining()) {
+                return null;
+            }
+            Image image;
+            if (bytesPerPixel == Byte.BYTES) {
+                byte[] levels = new byte[width * height];
+                mapped.get(levels);
+                image = new Image(levels, width, height);
+            } else if (Image.isOffHeapRaster(width, height, offHeapRasterBytes)) {
+                PixelBuffer.OffHeap pixels = new PixelBuffer.OffHeap(width * height);
+                IntBuffer ints = mapped.asIntBuffer();
+                int[] rowPixels = new int[width];
+                for (int row = 0; row < height; row++) {
+                    ints.get(rowPixels);
+                    pixels.setRGB(row * width, rowPixels, 0, width);
+                }
+                image = new Image(pixels, width, height);
+            } else {
+                int[] pixels = new int[width * height];
+                mapped.asIntBuffer().get(pixels);
+                image = new Image(pixels, width, height);
+            }
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return image;
+        }
+    }
+
+    // Writes through a temporary file, so readers never see a partly written entry
+    private void writeEntry(Path entry, Image image) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int bytesPerPixel = image.isGrayscale() ? Byte.BYTES : Integer.BYTES;
+        long size = (long) HEADER_INTS * Integer.BYTES + (long) width * height * bytesPerPixel;
+        if (size > Integer.MAX_VALUE) {
+            // an entry is mapped with a single buffer
+            throw new IOException("Raster is too large to cache");
+        }
+        Path temp = Files.createTempFile(directory, null, TEMP_SUFFIX);
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                mapped.order(ByteOrder.nativeOrder());
+                mapped.putInt(FILE_MAGIC).putInt(width).putInt(height).putInt(bytesPerPixel);
+                if (image.isGrayscale()) {
+                    byte[] rowLevels = new byte[width];
+                    for (int row = 0; row < height; row++) {
+                        image.getGrayRow(row, rowLevels, 0);
+                        mapped.put(rowLevels);
+                    }
+                } else {
+                    IntBuffer ints = mapped.asIntBuffer();
+                    int[] rowPixels = new int[width];
+                    for (int row = 0; row < height; row++) {
+                        image.getRow(row, rowPixels, 0);
+                        ints.put(rowPixels);
+                    }
+                }
+                mapped.force();
+            }
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Deletes the least recently used entries until the cache fits its disk budget
+    private void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        long totalSize = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + ENTRY_SUFFIX)) {
+            for (Path entry : stream) {
+                entries.add(entry);
+                totalSize += Files.size(entry);
+            }
+        }
+        if (totalSize <= diskBudgetBytes) {
+            return;
+        }
+        entries.sort(Comparator.comparing(RasterCache::lastModified));
+        for (Path entry : entries) {
+            if (totalSize <= diskBudgetBytes) {
+                break;
+            }
+            long entrySize = Files.size(entry);
+            Files.deleteIfExists(entry);
+            totalSize -= entrySize;
+        }
+    }
+
+    private static FileTime lastModified(Path entry) {
+        try {
+            return Files.getLastModifiedTime(entry);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Converts a decoded BufferedImage into a packed ARGB raster, or into a grayscale raster of
+ * one luminance level per pixel.
+ * The common layouts are read straight from the underlying DataBuffer, everything else
+ * goes through the color model with a single bulk getRGB call.
+ */
+class RasterDecoder {
+    private static final int OPAQUE_ALPHA = 0xFF000000;
+    private static final int GRAY_LEVELS = 256;
+    private static final int STRIPE_PIXELS = 1 << 16;
+
+    /**
+     * Decodes the pixels of the given image.
+     *
+     * @param im The decoded image.
+     * @return A row-major packed ARGB raster of im.getWidth() * im.getHeight() pixels, with the
+     *         same values BufferedImage.getRGB would return.
+     */
+    static int[] toPackedRGB(BufferedImage im) {
+        int[] pixels = new int[im.getWidth() * im.getHeight()];
+        toPackedRGB(im, pixels);
+        return pixels;
+    }
+
+    /**
+     * Decodes the pixels of the given image into an existing array, see {@link #toPackedRGB(BufferedImage)}.
+     *
+     * @param im     The decoded image.
+     * @param pixels The destination, at least im.getWidth() * im.getHeight() long.
+     */
+    static void toPackedRGB(BufferedImage im, int[] pixels) {
+        int width = im.getWidth();
+        int height = im.getHeight();
+        switch (im.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+                copyIntPixels(im.getRaster(), pixels, width, height, OPAQUE_ALPHA);
+                break;
+            case BufferedImage.TYPE_INT_ARGB:
+                copyIntPixels(im.getRaster(), pixels, width, height, 0);
+                break;
+            case BufferedImage.TYPE_3BYTE_BGR:
+                copyBgrPixels(im.getRaster(), pixels, width, height);
+                break;
+            case BufferedImage.TYPE_BYTE_GRAY:
+                copyGrayPixels(im.getRaster(), im.getColorModel(), pixels, width, height);
+                break;
+            default:
+                im.getRGB(0, 0, width, height, pixels, 0, width);
+        }
+    }
+
+    /**
+     * Converts the pixels of the given image to luminance levels, the fixed point luminance of
+     * the pixel BufferedImage.getRGB would return, rounded to 0..255. Gray images are converted
+     * through a table of their levels, everything else a stripe of rows at a time, so no packed
+     * ARGB copy of the image is made. The decoded image itself is still held until it is
+     * converted.
+     *
+     * @param im The decoded image.
+     * @return A row-major raster of im.getWidth() * im.getHeight() luminance levels.
+     */
+    static byte[] toGray(BufferedImage im) {
+        int width = im.getWidth();
+        int height = im.getHeight();
+        byte[] levels = new byte[width * height];
+        if (im.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            int[] grayToRgb = grayToRgb(im.getColorModel());
+            byte[] grayToLevel = new byte[GRAY_LEVELS];
+            for (int level = 0; level < GRAY_LEVELS; level++) {
+                grayToLevel[level] = toLevel(grayToRgb[level]);
+            }
+            Raster raster = im.getRaster();
+            ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+            byte[] src = ((DataBufferByte) raster.getDataBuffer()).getData();
+            int stride = sampleModel.getScanlineStride();
+            int pixelStride = sampleModel.getPixelStride();
+            int base = grayBase(raster, sampleModel);
+            for (int y = 0; y < height; y++) {
+                int srcIndex = base + y * stride;
+                for (int x = 0; x < width; x++, srcIndex += pixelStride) {
+                    levels[y * width + x] = grayToLevel[src[srcIndex] & 0xFF];
+                }
+            }
+            return levels;
+        }
+        int stripeRows = Math.max(1, Math.min(height, STRIPE_PIXELS / Math.max(1, width)));
+        int[] stripe = new int[stripeRows * width];
+        for (int startY = 0; startY < height; startY += stripeRows) {
+            int rows = Math.min(stripeRows, height - startY);
+            im.getRGB(0, startY, width, rows, stripe, 0, width);
+            for (int i = 0; i < rows * width; i++) {
+                levels[startY * width + i] = toLevel(stripe[i]);
+            }
+        }
+        return levels;
+    }
+
+    // Rounds the fixed point luminance of a pixel to a level
+    private static byte toLevel(int rgb) {
+        long scale = ImageBrightnessIntegral.RED_FACTOR + ImageBrightnessIntegral.GREEN_FACTOR
+                + ImageBrightnessIntegral.BLUE_FACTOR;
+        return (byte) ((ImageBrightnessIntegral.luma(rgb) + scale / 2) / scale);
+    }
+
+    /**
+     * Returns a short name of the path toPackedRGB takes for the given image, used for reporting.
+     */
+    static String describeLayout(BufferedImage im) {
+        switch (im.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+                return "INT_RGB";
+            case BufferedImage.TYPE_INT_ARGB:
+                return "INT_ARGB";
+            case BufferedImage.TYPE_3BYTE_BGR:
+                return "3BYTE_BGR";
+            case BufferedImage.TYPE_BYTE_GRAY:
+                return "BYTE_GRAY";
+            default:
+                return "generic";
+        }
+    }
+
+    private static void copyIntPixels(Raster raster, int[] dst, int width, int height, int alphaMask) {
+        SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+        int[] src = dataBuffer.getData();
+        int stride = sampleModel.getScanlineStride();
+        int base = dataBuffer.getOffset()
+                - raster.getSampleModelTranslateY() * stride
+                - raster.getSampleModelTranslateX();
+        for (int y = 0; y < height; y++) {
+            int srcIndex = base + y * stride;
+            int dstIndex = y * width;
+            if (alphaMask == 0) {
+                System.arraycopy(src, srcIndex, dst, dstIndex, width);
+            } else {
+                for (int x = 0; x < width; x++) {
+                    dst[dstIndex + x] = src[srcIndex + x] | alphaMask;
+                }
+            }
+        }
+    }
+
+    private static void copyBgrPixels(Raster raster, int[] dst, int width, int height) {
+        ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+        DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] src = dataBuffer.getData();
+        int stride = sampleModel.getScanlineStride();
+        int pixelStride = sampleModel.getPixelStride();
+        int[] bandOffsets = sampleModel.getBandOffsets();
+        int base = dataBuffer.getOffset()
+                - raster.getSampleModelTranslateY() * stride
+                - raster.getSampleModelTranslateX() * pixelStride;
+        for (int y = 0; y < height; y++) {
+            int srcIndex = base + y * stride;
+            int dstIndex = y * width;
+            for (int x = 0; x < width; x++, srcIndex += pixelStride) {
+                dst[dstIndex + x] = OPAQUE_ALPHA
+                        | (src[srcIndex + bandOffsets[0]] & 0xFF) << 16
+                        | (src[srcIndex + bandOffsets[1]] & 0xFF) << 8
+                        | (src[srcIndex + bandOffsets[2]] & 0xFF);
+            }
+        }
+    }
+
+    private static void copyGrayPixels(Raster raster, ColorModel colorModel, int[] dst, int width,
+            int height) {
+        ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+        DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] src = dataBuffer.getData();
+        int stride = sampleModel.getScanlineStride();
+        int pixelStride = sampleModel.getPixelStride();
+        int base = grayBase(raster, sampleModel);
+        int[] grayToRgb = grayToRgb(colorModel);
+        for (int y = 0; y < height; y++) {
+            int srcIndex = base + y * stride;
+            int dstIndex = y * width;
+            for (int x = 0; x < width; x++, srcIndex += pixelStride) {
+                dst[dstIndex + x] = grayToRgb[src[srcIndex] & 0xFF];
+            }
+        }
+    }
+
+    private static int grayBase(Raster raster, ComponentSampleModel sampleModel) {
+        return raster.getDataBuffer().getOffset()
+                - raster.getSampleModelTranslateY() * sampleModel.getScanlineStride()
+                - raster.getSampleModelTranslateX() * sampleModel.getPixelStride()
+                + sampleModel.getBandOffsets()[0];
+    }
+
+    // the gray color space is linear, so every level is converted to sRGB once up front
+    private static int[] grayToRgb(ColorModel colorModel) {
+        int[] grayToRgb = new int[GRAY_LEVELS];
+        byte[] sample = new byte[1];
+        for (int level = 0; level < GRAY_LEVELS; level++) {
+            sample[0] = (byte) level;
+            grayToRgb[level] = colorModel.getRGB(sample);
+        }
+        return grayToRgb;
+    }
+}
@@ -0,0 +1,73 @@
+package image;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A fork-join task that splits a range of rows into bands and processes them in parallel.
+ * Every row is handled by exactly one band, so as long as the action only writes the rows it is
+ * given the result does not depend on how the range was split.
+ */
+class RowBandTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The work done on a band of rows.
+     */
+    interface RowRangeAction {
+        /**
+         * Processes the half open range of rows [fromRow, toRow).
+         */
+        void apply(int fromRow, int toRow);
+    }
+
+    private final RowRangeAction action;
+    private final int fromRow;
+    private final int toRow;
+    private final int minBandSize;
+
+    /**
+     * Constructs a task over the half open range of rows [fromRow, toRow).
+     *
+     * @param action      The work done on each band.
+     * @param fromRow     The first row.
+     * @param toRow       One past the last row.
+     * @param minBandSize Ranges of at most this many rows are not split further.
+     */
+    RowBandTask(RowRangeAction action, int fromRow, int toRow, int minBandSize) {
+        this.action = action;
+        this.fromRow = fromRow;
+        this.toRow = toRow;
+        this.minBandSize = minBandSize;
+    }
+
+    /**
+     * Processes the half open range of rows [fromRow, toRow), in parallel bands on the given pool
+     * or directly on the calling thread when no pool is given.
+     *
+     * @param pool        The pool to run on, or null to run serially.
+     * @param action      The work done on each band.
+     * @param fromRow     The first row.
+     * @param toRow       One past the last row.
+     * @param minBandSize Ranges of at most this many rows are not split further.
+     */
+    static void process(ForkJoinPool pool, RowRangeAction action, int fromRow, int toRow,
+            int minBandSize) {
+        if (pool == null) {
+            action.apply(fromRow, toRow);
+        } else {
+            pool.invoke(new RowBandTask(action, fromRow, toRow, minBandSize));
+        }
+    }
+
+    @Override
+    protected void compute() {
+        if (toRow - fromRow <= minBandSize) {
+            action.apply(fromRow, toRow);
+            return;
+        }
+        int middleRow = (fromRow + toRow) >>> 1;
+        invokeAll(new RowBandTask(action, fromRow, middleRow, minBandSize),
+                new RowBandTask(action, middleRow, toRow, minBandSize));
+    }
+}
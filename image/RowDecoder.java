@@ -0,0 +1,368 @@
+package image;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import javax.imageio.metadata.IIOMetadataNode;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.w3c.dom.NodeList;
+
+/**
+ * Decodes an image in a single forward pass, handing its rows out as packed ARGB pixels as soon
+ * as the reader produces them.
+ * Sequential JPEG and PNG images are read once into a destination whose DataBuffer only keeps
+ * the rows between being written and being handed out, usually a single one, so the decoded
+ * image is never held. Progressive and interlaced images, and formats whose readers write
+ * straight into the arrays of a standard DataBuffer, are decoded whole and then handed out row
+ * by row. A destination too large to index with an int is decoded in as few bands of rows as
+ * fit, each a read of its own.
+ */
+class RowDecoder {
+    private static final Set<String> ROW_ORDER_FORMATS = Set.of("jpeg", "png");
+
+    /**
+     * Receives the rows of a decoded image, in order from the top.
+     */
+    interface RowSink {
+        /**
+         * Takes a decoded row.
+         *
+         * @param y      The row.
+         * @param pixels The packed ARGB pixels of the row, the array is reused for the next row.
+         * @throws IOException to stop decoding, it is rethrown by decode.
+         */
+        void acceptRow(int y, int[] pixels) throws IOException;
+    }
+
+    private RowDecoder() {
+    }
+
+    /**
+     * Returns the number of pixels a source dimension is decoded to at the given subsampling.
+     */
+    static int decodedSize(int sourceSize, int subsampling) {
+        return (sourceSize + subsampling - 1) / subsampling;
+    }
+
+    /**
+     * Decodes the first image of a reader.
+     *
+     * @param reader The reader, its input set.
+     * @param param  The read parameters. Only the source subsampling is taken, without offsets;
+     *               the source region and destination are replaced.
+     * @param sink   The sink the rows are handed to.
+     * @throws IOException if the image cannot be decoded, or the sink throws.
+     */
+    static void decode(ImageReader reader, ImageReadParam param, RowSink sink) throws IOException {
+        int xSubsampling = param.getSourceXSubsampling();
+        int ySubsampling = param.getSourceYSubsampling();
+        int sourceWidth = reader.getWidth(0);
+        int sourceHeight = reader.getHeight(0);
+        int width = decodedSize(sourceWidth, xSubsampling);
+        int height = decodedSize(sourceHeight, ySubsampling);
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        ImageTypeSpecifier type = types != null && types.hasNext() ? types.next() : null;
+        int scanlineStride = type == null ? 0 : scanlineStride(type.getSampleModel(width, 1));
+        if (scanlineStride <= 0 || !isRowOrder(reader)) {
+            decodeWhole(reader, param, width, height, sink);
+            return;
+        }
+        int bandRows = Math.max(1, Integer.MAX_VALUE / scanlineStride);
+        for (int bandTop = 0; bandTop < height; bandTop += bandRows) {
+            int rows = Math.min(bandRows, height - bandTop);
+            if (rows < height) {
+                int sourceTop = bandTop * ySubsampling;
+                param.setSourceRegion(new Rectangle(0, sourceTop, sourceWidth,
+                        Math.min(rows * ySubsampling, sourceHeight - sourceTop)));
+            }
+            new Band(reader, type, width, rows, bandTop, scanlineStride, sink).read(param);
+        }
+    }
+
+    // Reads the whole image at once and hands out its rows.
+    private static void decodeWhole(ImageReader reader, ImageReadParam param, int width, int height,
+            RowSink sink) throws IOException {
+        BufferedImage im = reader.read(0, param);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            RasterDecoder.toPackedRGB(im.getSubimage(0, y, width, 1), row);
+            sink.acceptRow(y, row);
+        }
+    }
+
+    // The readers of these formats fill the destination one row at a time through the Raster
+    // methods, reporting every row as it is done. Progressive and interlaced images fill it in
+    // several scans instead, which the standard metadata tells ahead of the read.
+    private static boolean isRowOrder(ImageReader reader) throws IOException {
+        if (!ROW_ORDER_FORMATS.contains(reader.getFormatName().toLowerCase())) {
+            return false;
+        }
+        IIOMetadata metadata = reader.getImageMetadata(0);
+        if (metadata == null || !metadata.isStandardMetadataFormatSupported()) {
+            return false;
+        }
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(
+                IIOMetadataFormatImpl.standardMetadataFormatName);
+        NodeList scans = root.getElementsByTagName("NumProgressiveScans");
+        return scans.getLength() == 0
+                || "1".equals(((IIOMetadataNode) scans.item(0)).getAttribute("value"));
+    }
+
+    // The data elements per row of a single bank sample model, 0 for any other.
+    private static int scanlineStride(SampleModel sampleModel) {
+        int dataType = sampleModel.getDataType();
+        if (dataType != DataBuffer.TYPE_BYTE && dataType != DataBuffer.TYPE_USHORT
+                && dataType != DataBuffer.TYPE_INT) {
+            return 0;
+        }
+        if (sampleModel instanceof ComponentSampleModel) {
+            ComponentSampleModel componentModel = (ComponentSampleModel) sampleModel;
+            return componentModel.getNumBands() == 1 || isSingleBank(componentModel.getBankIndices())
+                    ? componentModel.getScanlineStride() : 0;
+        }
+        if (sampleModel instanceof SinglePixelPackedSampleModel) {
+            return ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride();
+        }
+        if (sampleModel instanceof MultiPixelPackedSampleModel) {
+            return ((MultiPixelPackedSampleModel) sampleModel).getScanlineStride();
+        }
+        return 0;
+    }
+
+    private static boolean isSingleBank(int[] bankIndices) {
+        for (int bank : bankIndices) {
+            if (bank != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A band of rows read into a RowStore, each row handed to the sink as soon as the reader
+     * reports it done.
+     */
+    private static final class Band implements IIOReadUpdateListener {
+        private final ImageReader reader;
+        private final int rows;
+        private final int top;
+        private final RowSink sink;
+        private final RowStore store;
+        private final BufferedImage destination;
+        private final BufferedImage rowImage;
+        private final Object rowData;
+        private final int rowDataLength;
+        private final int[] rowPixels;
+        private int nextRow;
+        private IOException sinkFailure;
+
+        Band(ImageReader reader, ImageTypeSpecifier type, int width, int rows, int top,
+                int scanlineStride, RowSink sink) {
+            this.reader = reader;
+            this.rows = rows;
+            this.top = top;
+            this.sink = sink;
+            SampleModel sampleModel = type.getSampleModel(width, rows);
+            store = new RowStore(sampleModel.getDataType(), scanlineStride, rows);
+            ColorModel colorModel = type.getColorModel();
+            destination = new BufferedImage(colorModel,
+                    Raster.createWritableRaster(sampleModel, store, null),
+                    colorModel.isAlphaPremultiplied(), null);
+            // a standard one row image of the same layout, so rows convert on the fast paths
+            rowImage = type.createBufferedImage(width, 1);
+            rowData = dataArray(rowImage.getRaster().getDataBuffer());
+            rowDataLength = Math.min(scanlineStride, rowImage.getRaster().getDataBuffer().getSize());
+            rowPixels = new int[width];
+        }
+
+        void read(ImageReadParam param) throws IOException {
+            param.setDestination(destination);
+            reader.addIIOReadUpdateListener(this);
+            try {
+                reader.read(0, param);
+            } finally {
+                reader.removeIIOReadUpdateListener(this);
+                param.setDestination(null);
+            }
+            if (sinkFailure != null) {
+                throw sinkFailure;
+            }
+            // rows the reader never reported, such as those of a truncated file, are handed out as
+            // they are
+            emitRows(rows);
+            if (sinkFailure != null) {
+                throw sinkFailure;
+            }
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY,
+                int width, int height, int periodX, int periodY, int[] bands) {
+            emitRows(Math.min(rows, minY + height));
+        }
+
+        private void emitRows(int endRow) {
+            while (sinkFailure == null && nextRow < endRow) {
+                Object row = store.takeRow(nextRow);
+                if (row != null) {
+                    System.arraycopy(row, 0, rowData, 0, rowDataLength);
+                    store.recycle(row);
+                } else {
+                    store.clear(rowData);
+                }
+                RasterDecoder.toPackedRGB(rowImage, rowPixels);
+                try {
+                    sink.acceptRow(top + nextRow, rowPixels);
+                } catch (IOException e) {
+                    sinkFailure = e;
+                    reader.abort();
+                }
+                nextRow++;
+            }
+        }
+
+        @Override
+        public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass,
+                int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void passComplete(ImageReader source, BufferedImage theImage) {
+        }
+
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass,
+                int minPass, int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX,
+                int minY, int width, int height, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {
+        }
+
+        private static Object dataArray(DataBuffer dataBuffer) {
+            if (dataBuffer instanceof DataBufferByte) {
+                return ((DataBufferByte) dataBuffer).getData();
+            }
+            if (dataBuffer instanceof DataBufferUShort) {
+                return ((DataBufferUShort) dataBuffer).getData();
+            }
+            return ((DataBufferInt) dataBuffer).getData();
+        }
+    }
+
+    /**
+     * A DataBuffer that keeps only the rows written but not yet taken, each in an array of its
+     * own. Taken rows are recycled for the rows written next, so a band in row order allocates
+     * just a few rows however tall it is. Unwritten elements read as 0.
+     */
+    private static final class RowStore extends DataBuffer {
+        private final int rowLength;
+        private final Object[] rows;
+        private final ArrayDeque<Object> recycled = new ArrayDeque<>();
+
+        RowStore(int dataType, int rowLength, int rowCount) {
+            super(dataType, rowLength * rowCount);
+            this.rowLength = rowLength;
+            this.rows = new Object[rowCount];
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            Object row = rows[i / rowLength];
+            if (row == null) {
+                return 0;
+            }
+            int index = i % rowLength;
+            switch (dataType) {
+                case TYPE_BYTE:
+                    return ((byte[]) row)[index] & 0xFF;
+                case TYPE_USHORT:
+                    return ((short[]) row)[index] & 0xFFFF;
+                default:
+                    return ((int[]) row)[index];
+            }
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            int y = i / rowLength;
+            Object row = rows[y];
+            if (row == null) {
+                row = recycled.isEmpty() ? newRow() : recycled.pop();
+                rows[y] = row;
+            }
+            int index = i % rowLength;
+            switch (dataType) {
+                case TYPE_BYTE:
+                    ((byte[]) row)[index] = (byte) val;
+                    break;
+                case TYPE_USHORT:
+                    ((short[]) row)[index] = (short) val;
+                    break;
+                default:
+                    ((int[]) row)[index] = val;
+            }
+        }
+
+        // Removes a row from the store, null if it was never written.
+        Object takeRow(int y) {
+            Object row = rows[y];
+            rows[y] = null;
+            return row;
+        }
+
+        void recycle(Object row) {
+            clear(row);
+            recycled.push(row);
+        }
+
+        void clear(Object row) {
+            switch (dataType) {
+                case TYPE_BYTE:
+                    Arrays.fill((byte[]) row, (byte) 0);
+                    break;
+                case TYPE_USHORT:
+                    Arrays.fill((short[]) row, (short) 0);
+                    break;
+                default:
+                    Arrays.fill((int[]) row, 0);
+            }
+        }
+
+        private Object newRow() {
+            switch (dataType) {
+                case TYPE_BYTE:
+                    return new byte[rowLength];
+                case TYPE_USHORT:
+                    return new short[rowLength];
+                default:
+                    return new int[rowLength];
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package image;
+
+import java.io.IOException;
+
+/**
+ * A source of an image that can be read one horizontal stripe at a time, so an image can be
+ * processed without ever holding all of its pixels.
+ */
+public interface StripeSource {
+    /**
+     * Returns the width of the image.
+     */
+    int getWidth();
+
+    /**
+     * Returns the height of the image.
+     */
+    int getHeight();
+
+    /**
+     * Reads a stripe of consecutive rows of the image.
+     *
+     * @param startY   The first row of the stripe.
+     * @param rowCount The number of rows in the stripe.
+     * @return An image holding just the rows of the stripe.
+     * @throws IOException if the stripe cannot be read.
+     */
+    Image readStripe(int startY, int rowCount) throws IOException;
+}
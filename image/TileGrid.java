@@ -0,0 +1,131 @@
+package image;
+
+/**
+ * The layout of the cells an image is divided to for a given resolution.
+ * There are two layouts:
+ * <ul>
+ *     <li>Padded squares: the image is virtually padded with white pixels to power of two
+ *     dimensions, as {@link ImagePadder} would, and the padded image is divided to squares of
+ *     paddedWidth / resolution pixels. Squares touching the padding start at negative or out of
+ *     range positions.</li>
+ *     <li>Fitted cells: the image itself is divided to resolution columns and as many rows as
+ *     keep every cell at the given height to width ratio, so a character covers the same shape
+ *     of the image that it takes on the screen. Cell edges are spread evenly over the image, so
+ *     any width is covered without padding and neighbouring cells differ by one pixel at most.</li>
+ * </ul>
+ * Cell positions are given in the coordinates of the original image.
+ */
+public class TileGrid {
+    /** The cell aspect ratio that selects the padded squares layout */
+    public static final double PADDED_SQUARES = 0;
+
+    private final int imageWidth;
+    private final int imageHeight;
+    private final int squareSize;
+    private final int[] cellXs;
+    private final int[] cellYs;
+
+    /**
+     * Lays out the padded squares of an image.
+     *
+     * @param imageWidth  The width of the image.
+     * @param imageHeight The height of the image.
+     * @param resolution  The number of squares per row.
+     */
+    public TileGrid(int imageWidth, int imageHeight, int resolution) {
+        this(imageWidth, imageHeight, resolution, PADDED_SQUARES);
+    }
+
+    /**
+     * Lays out the cells of an image.
+     *
+     * @param imageWidth      The width of the image.
+     * @param imageHeight     The height of the image.
+     * @param resolution      The number of cells per row.
+     * @param cellAspectRatio The height to width ratio of the cells, or {@link #PADDED_SQUARES}
+     *                        for the padded squares layout.
+     */
+    public TileGrid(int imageWidth, int imageHeight, int resolution, double cellAspectRatio) {
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        if (cellAspectRatio == PADDED_SQUARES) {
+            int paddedWidth = ImagePadder.findNearestPowerOfTwo(imageWidth);
+            int paddedHeight = ImagePadder.findNearestPowerOfTwo(imageHeight);
+            // we will use Max to not divide by 0 if current image dimensions smaller than target resolution
+            squareSize = Math.max(1, paddedWidth / resolution);
+            cellXs = squareEdges(paddedWidth / squareSize, squareSize, (paddedWidth - imageWidth) / 2);
+            cellYs = squareEdges(paddedHeight / squareSize, squareSize, (paddedHeight - imageHeight) / 2);
+        } else {
+            squareSize = 0;
+            int cols = Math.max(1, Math.min(resolution, imageWidth));
+            double cellHeight = (double) imageWidth / cols * cellAspectRatio;
+            int rows = (int) Math.max(1, Math.min(imageHeight, Math.round(imageHeight / cellHeight)));
+            cellXs = fittedEdges(cols, imageWidth);
+            cellYs = fittedEdges(rows, imageHeight);
+        }
+    }
+
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    /** Returns the number of rows of cells. */
+    public int getRows() {
+        return cellYs.length - 1;
+    }
+
+    /** Returns the number of cells in each row. */
+    public int getCols() {
+        return cellXs.length - 1;
+    }
+
+    /** Returns true if the cells are padded squares of {@link #getSquareSize()} pixels. */
+    public boolean isPaddedSquares() {
+        return squareSize != 0;
+    }
+
+    /** Returns the side of each square in pixels, or 0 if the cells are fitted. */
+    public int getSquareSize() {
+        return squareSize;
+    }
+
+    /** Returns the left column of the cells in the given column, in image coordinates. */
+    public int getCellX(int col) {
+        return cellXs[col];
+    }
+
+    /** Returns the top row of the cells in the given row, in image coordinates. */
+    public int getCellY(int row) {
+        return cellYs[row];
+    }
+
+    /** Returns the width of the cells in the given column. */
+    public int getCellWidth(int col) {
+        return cellXs[col + 1] - cellXs[col];
+    }
+
+    /** Returns the height of the cells in the given row. */
+    public int getCellHeight(int row) {
+        return cellYs[row + 1] - cellYs[row];
+    }
+
+    private static int[] squareEdges(int count, int squareSize, int padding) {
+        int[] edges = new int[count + 1];
+        for (int i = 0; i <= count; i++) {
+            edges[i] = i * squareSize - padding;
+        }
+        return edges;
+    }
+
+    private static int[] fittedEdges(int count, int length) {
+        int[] edges = new int[count + 1];
+        for (int i = 0; i <= count; i++) {
+            edges[i] = (int) ((long) i * length / count);
+        }
+        return edges;
+    }
+}
@@ -2,6 +2,8 @@ package image_char_matching;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Inspired by, and partly copied from
@@ -14,8 +16,11 @@ import java.awt.image.BufferedImage;
 public class CharConverter {
     private static final double X_OFFSET_FACTOR = 0.2;
     private static final double Y_OFFSET_FACTOR = 0.75;
-    private static final String FONT_NAME = "Courier New";
+    private static final int ADVANCE_FONT_SIZE = 100;
+    public static final String FONT_NAME = "Courier New";
     public static final int DEFAULT_PIXEL_RESOLUTION = 16;
+    // measuring a font initializes AWT, so every font is measured once
+    private static final Map<String, Double> CHAR_ADVANCES = new ConcurrentHashMap<>();
 
     /**
      * Renders a given character, according to how it looks in the font specified in the
@@ -23,16 +28,67 @@ public class CharConverter {
      * whose dimension in pixels is specified.
      */
     public static boolean[][] convertToBoolArray(char c) {
-        BufferedImage img = getBufferedImage(c, FONT_NAME, DEFAULT_PIXEL_RESOLUTION);
-        boolean[][] matrix = new boolean[DEFAULT_PIXEL_RESOLUTION][DEFAULT_PIXEL_RESOLUTION];
-        for(int y = 0 ; y < DEFAULT_PIXEL_RESOLUTION ; y++) {
-            for(int x = 0 ; x < DEFAULT_PIXEL_RESOLUTION ; x++) {
+        return convertToBoolArray(c, FONT_NAME, DEFAULT_PIXEL_RESOLUTION);
+    }
+
+    /**
+     * Renders a given character in the given font to a square black&white image
+     * of pixelResolution x pixelResolution pixels.
+     */
+    public static boolean[][] convertToBoolArray(char c, String fontName, int pixelResolution) {
+        BufferedImage img = getBufferedImage(c, fontName, pixelResolution);
+        boolean[][] matrix = new boolean[pixelResolution][pixelResolution];
+        for(int y = 0 ; y < pixelResolution ; y++) {
+            for(int x = 0 ; x < pixelResolution ; x++) {
                 matrix[y][x] = img.getRGB(x, y) == 0; //is the color black
             }
         }
         return matrix;
     }
 
+    /**
+     * Renders all the given characters at once, the same way {@link #convertToBoolArray} renders
+     * each of them. The characters are drawn side by side into a single atlas image with one
+     * graphics context, each clipped to its own square, and the squares are then cut out.
+     *
+     * @return The black&white image of every character, in the order given.
+     */
+    public static boolean[][][] convertToBoolArrays(char[] chars, String fontName, int pixelResolution) {
+        boolean[][][] matrices = new boolean[chars.length][pixelResolution][pixelResolution];
+        if (chars.length == 0) {
+            return matrices;
+        }
+        BufferedImage atlas = getAtlasImage(chars, fontName, pixelResolution);
+        int atlasWidth = chars.length * pixelResolution;
+        int[] atlasPixels = atlas.getRGB(0, 0, atlasWidth, pixelResolution, null, 0, atlasWidth);
+        for (int i = 0; i < chars.length; i++) {
+            for(int y = 0 ; y < pixelResolution ; y++) {
+                int rowStart = y * atlasWidth + i * pixelResolution;
+                for(int x = 0 ; x < pixelResolution ; x++) {
+                    matrices[i][y][x] = atlasPixels[rowStart + x] == 0; //is the color black
+                }
+            }
+        }
+        return matrices;
+    }
+
+    /**
+     * Returns the advance of a character in the given font as a fraction of the font size (in
+     * ems), which is the same for every character of a monospaced font. The font is measured on
+     * first use and the advance is kept for later calls.
+     */
+    public static double getCharAdvance(String fontName) {
+        return CHAR_ADVANCES.computeIfAbsent(fontName, CharConverter::measureCharAdvance);
+    }
+
+    private static double measureCharAdvance(String fontName) {
+        BufferedImage img = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        Graphics g = img.getGraphics();
+        FontMetrics metrics = g.getFontMetrics(new Font(fontName, Font.PLAIN, ADVANCE_FONT_SIZE));
+        g.dispose();
+        return (double) metrics.charWidth('M') / ADVANCE_FONT_SIZE;
+    }
+
     private static BufferedImage getBufferedImage(char c, String fontName, int pixelsPerRow) {
         String charStr = Character.toString(c);
         Font font = new Font(fontName, Font.PLAIN, pixelsPerRow);
@@ -42,7 +98,25 @@ public class CharConverter {
         int xOffset = (int)Math.round(pixelsPerRow *X_OFFSET_FACTOR);
         int yOffset = (int)Math.round(pixelsPerRow *Y_OFFSET_FACTOR);
         g.drawString(charStr, xOffset, yOffset);
+        g.dispose();
         return img;
     }
 
+    private static BufferedImage getAtlasImage(char[] chars, String fontName, int pixelsPerRow) {
+        Font font = new Font(fontName, Font.PLAIN, pixelsPerRow);
+        BufferedImage atlas = new BufferedImage(chars.length * pixelsPerRow, pixelsPerRow,
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = atlas.createGraphics();
+        g.setFont(font);
+        int xOffset = (int)Math.round(pixelsPerRow *X_OFFSET_FACTOR);
+        int yOffset = (int)Math.round(pixelsPerRow *Y_OFFSET_FACTOR);
+        for (int i = 0; i < chars.length; i++) {
+            int cellStart = i * pixelsPerRow;
+            g.setClip(cellStart, 0, pixelsPerRow, pixelsPerRow);
+            g.drawString(Character.toString(chars[i]), cellStart + xOffset, yOffset);
+        }
+        g.dispose();
+        return atlas;
+    }
+
 }
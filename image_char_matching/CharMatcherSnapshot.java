@@ -0,0 +1,178 @@
+package image_char_matching;
+
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * An immutable, compiled charset of a {@link SubImgCharMatcher}, matching image brightness and
+ * shape to characters.
+ * The normalized brightness levels are compiled into a lookup table of LOOKUP_TABLE_SIZE
+ * buckets over [0, 1], so matching a brightness is a single array index. A bucket that a
+ * decision boundary between two characters falls into is resolved exactly by a binary search
+ * over the normalized levels. Nothing changes after construction, so any number of threads can
+ * match with one snapshot without locking, while the matcher it came from keeps changing.
+ */
+public final class CharMatcherSnapshot {
+    private static final int LOOKUP_TABLE_SIZE = 4096;
+    private static final double SHAPE_BRIGHTNESS_WINDOW = 0.1;
+    private static final double MIN_SHAPE_CONTRAST = 0.1;
+
+    private final double[] normalizedBrightness;
+    private final char[] normalizedChars;
+    private final char[] lookupTable;
+    private final boolean[] boundaryBuckets;
+    private final double[] shapeBrightness;
+    private final char[] shapeChars;
+    private final long[][] shapeBits;
+
+    /**
+     * Compiles a charset.
+     *
+     * @param brightnessMap The characters of the charset by their glyph brightness, not empty.
+     *                      It is only read during construction.
+     */
+    CharMatcherSnapshot(SortedMap<Double, ? extends SortedSet<Character>> brightnessMap) {
+        double minBrightness = brightnessMap.firstKey();
+        double maxBrightness = brightnessMap.lastKey();
+
+        normalizedBrightness = new double[brightnessMap.size()];
+        normalizedChars = new char[brightnessMap.size()];
+        int index = 0;
+        for (Entry<Double, ? extends SortedSet<Character>> entry : brightnessMap.entrySet()) {
+            normalizedBrightness[index] = (entry.getKey() - minBrightness) / (maxBrightness - minBrightness);
+            normalizedChars[index] = entry.getValue().first();
+            index++;
+        }
+        lookupTable = new char[LOOKUP_TABLE_SIZE];
+        boundaryBuckets = new boolean[LOOKUP_TABLE_SIZE];
+        compileLookupTable();
+
+        // every character, not just the first of each brightness level, in brightness order
+        int charCount = 0;
+        for (SortedSet<Character> chars : brightnessMap.values()) {
+            charCount += chars.size();
+        }
+        shapeBrightness = new double[charCount];
+        shapeChars = new char[charCount];
+        shapeBits = new long[charCount][];
+        index = 0;
+        for (Entry<Double, ? extends SortedSet<Character>> entry : brightnessMap.entrySet()) {
+            double normalized = maxBrightness == minBrightness ? 0.0
+                    : (entry.getKey() - minBrightness) / (maxBrightness - minBrightness);
+            for (char c : entry.getValue()) {
+                shapeBrightness[index] = normalized;
+                shapeChars[index] = c;
+                shapeBits[index] = GlyphCache.getInstance().getGlyphBits(c);
+                index++;
+            }
+        }
+    }
+
+    /**
+     * Gets the character associated with the provided image brightness.
+     *
+     * @param brightness The brightness of the image.
+     * @return The character matching the provided brightness.
+     */
+    public char getCharByImageBrightness(double brightness) {
+        int bucket = getBucket(brightness);
+        return boundaryBuckets[bucket] ? findClosestChar(brightness) : lookupTable[bucket];
+    }
+
+    /**
+     * Gets the character whose glyph looks most like the given square of an image. Only
+     * characters within SHAPE_BRIGHTNESS_WINDOW of the square's brightness are considered, and
+     * among them the one whose glyph bitmap differs from the square's bitmap in the fewest bits
+     * wins, the closer one in brightness on ties. A square of lower contrast than
+     * MIN_SHAPE_CONTRAST has no shape to speak of and is matched by brightness alone.
+     *
+     * @param brightness The brightness of the square.
+     * @param bitmap     The bitmap of the square, at the resolution and bit layout of
+     *                   {@link GlyphCache#getGlyphBits(char)}.
+     * @param contrast   The contrast of the square.
+     * @return The character matching the provided square.
+     */
+    public char getCharByImageShape(double brightness, long[] bitmap, double contrast) {
+        if (contrast < MIN_SHAPE_CONTRAST)
+            return getCharByImageBrightness(brightness);
+
+        int from = lowerBound(shapeBrightness, brightness - SHAPE_BRIGHTNESS_WINDOW);
+        int to = lowerBound(shapeBrightness, Math.nextUp(brightness + SHAPE_BRIGHTNESS_WINDOW));
+        if (from >= to)
+            return getCharByImageBrightness(brightness);
+        int bestIndex = from;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int index = from; index < to; index++) {
+            long[] glyphBits = shapeBits[index];
+            int distance = 0;
+            for (int word = 0; word < glyphBits.length; word++) {
+                distance += Long.bitCount(glyphBits[word] ^ bitmap[word]);
+            }
+            if (distance < bestDistance || (distance == bestDistance &&
+                    Math.abs(shapeBrightness[index] - brightness) <
+                    Math.abs(shapeBrightness[bestIndex] - brightness))) {
+                bestIndex = index;
+                bestDistance = distance;
+            }
+        }
+        return shapeChars[bestIndex];
+    }
+
+    // The matched char never decreases as the brightness grows, so a bucket whose lowest and
+    // highest brightness match the same char matches it everywhere in between.
+    private void compileLookupTable() {
+        for (int bucket = 0; bucket < LOOKUP_TABLE_SIZE; bucket++) {
+            double lowest = (double) bucket / LOOKUP_TABLE_SIZE;
+            double highest = bucket == LOOKUP_TABLE_SIZE - 1
+                    ? 1.0
+                    : Math.nextDown((double) (bucket + 1) / LOOKUP_TABLE_SIZE);
+            char lowestChar = findClosestChar(lowest);
+            lookupTable[bucket] = lowestChar;
+            boundaryBuckets[bucket] = findClosestChar(highest) != lowestChar;
+        }
+    }
+
+    // The index of the first value not below the given one.
+    private static int lowerBound(double[] values, double value) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int getBucket(double brightness) {
+        return Math.max(0, Math.min(LOOKUP_TABLE_SIZE - 1, (int) (brightness * LOOKUP_TABLE_SIZE)));
+    }
+
+    // Picks the closest normalized level, the darker one on ties.
+    private char findClosestChar(double brightness) {
+        if (normalizedChars.length == 1) {
+            return normalizedChars[0];
+        }
+        int index = Arrays.binarySearch(normalizedBrightness, brightness);
+        if (index >= 0) {
+            return normalizedChars[index];
+        }
+        int ceilingIndex = -index - 1;
+        if (ceilingIndex == 0) {
+            return normalizedChars[0];
+        }
+        if (ceilingIndex == normalizedBrightness.length) {
+            return normalizedChars[normalizedBrightness.length - 1];
+        }
+        int floorIndex = ceilingIndex - 1;
+        return Math.abs(normalizedBrightness[floorIndex] - brightness) <=
+                Math.abs(normalizedBrightness[ceilingIndex] - brightness)
+                ? normalizedChars[floorIndex]
+                : normalizedChars[ceilingIndex];
+    }
+}
@@ -0,0 +1,221 @@
+package image_char_matching;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A cache of rendered glyphs, keyed by font name, pixel resolution and character.
+ * Each glyph is kept as the bits of its {@link CharConverter} boolean array, packed row by row
+ * into longs, so a known glyph is never rasterized again. The cache lives in memory and can be
+ * saved to and loaded from a small binary file, so it survives between launches.
+ */
+public class GlyphCache {
+    private static final int FILE_MAGIC = 0x474C5946;
+    private static final int FILE_VERSION = 1;
+    private static final GlyphCache INSTANCE = new GlyphCache();
+
+    private final Map<GlyphKey, long[]> glyphs;
+    private volatile boolean modified;
+
+    private GlyphCache() {
+        glyphs = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the cache shared by the whole program.
+     */
+    public static GlyphCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the packed bits of a character in the default font and resolution, rendering it
+     * only if it is not cached yet. The returned array is shared and must not be modified.
+     *
+     * @param c The character.
+     * @return The bits of the glyph, bit (y * resolution + x) is set where the glyph is white.
+     */
+    public long[] getGlyphBits(char c) {
+        return getGlyphBits(c, CharConverter.FONT_NAME, CharConverter.DEFAULT_PIXEL_RESOLUTION);
+    }
+
+    /**
+     * Returns the packed bits of a character, rendering it only if it is not cached yet.
+     * The returned array is shared and must not be modified.
+     *
+     * @param c               The character.
+     * @param fontName        The font to render in.
+     * @param pixelResolution The width and height of the rendered glyph.
+     * @return The bits of the glyph, bit (y * resolution + x) is set where the glyph is white.
+     */
+    public long[] getGlyphBits(char c, String fontName, int pixelResolution) {
+        GlyphKey key = new GlyphKey(fontName, pixelResolution, c);
+        long[] bits = glyphs.get(key);
+        if (bits == null) {
+            bits = pack(CharConverter.convertToBoolArray(c, fontName, pixelResolution));
+            glyphs.put(key, bits);
+            modified = true;
+        }
+        return bits;
+    }
+
+    /**
+     * Makes sure every given character is cached in the default font and resolution. The missing
+     * ones are rendered together in a single atlas, which is much cheaper than one at a time.
+     *
+     * @param chars The characters.
+     */
+    public void renderGlyphs(char[] chars) {
+        String fontName = CharConverter.FONT_NAME;
+        int pixelResolution = CharConverter.DEFAULT_PIXEL_RESOLUTION;
+        StringBuilder missingChars = new StringBuilder();
+        for (char c : chars) {
+            if (!glyphs.containsKey(new GlyphKey(fontName, pixelResolution, c))
+                    && missingChars.indexOf(String.valueOf(c)) < 0) {
+                missingChars.append(c);
+            }
+        }
+        if (missingChars.length() == 0) {
+            return;
+        }
+        char[] missing = missingChars.toString().toCharArray();
+        boolean[][][] matrices = CharConverter.convertToBoolArrays(missing, fontName, pixelResolution);
+        for (int i = 0; i < missing.length; i++) {
+            glyphs.putIfAbsent(new GlyphKey(fontName, pixelResolution, missing[i]), pack(matrices[i]));
+        }
+        modified = true;
+    }
+
+    /**
+     * Returns the brightness of a character in the default font and resolution, the share of
+     * white pixels in its glyph.
+     *
+     * @param c The character.
+     * @return The brightness, between 0 and 1.
+     */
+    public double getGlyphBrightness(char c) {
+        int resolution = CharConverter.DEFAULT_PIXEL_RESOLUTION;
+        double whiteCounter = 0;
+        for (long word : getGlyphBits(c)) {
+            whiteCounter += Long.bitCount(word);
+        }
+        return whiteCounter / (resolution * resolution);
+    }
+
+    /**
+     * Returns whether glyphs were rendered since the cache was last loaded or saved.
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Adds the glyphs saved in the given file to the cache. A missing file is not an error.
+     *
+     * @param file The cache file.
+     * @throws IOException if the file exists but cannot be read or is not a glyph cache file.
+     */
+    public void load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                throw new IOException("Not a glyph cache file: " + file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String fontName = in.readUTF();
+                int pixelResolution = in.readInt();
+                char c = in.readChar();
+                long[] bits = new long[in.readInt()];
+                for (int word = 0; word < bits.length; word++) {
+                    bits[word] = in.readLong();
+                }
+                glyphs.putIfAbsent(new GlyphKey(fontName, pixelResolution, c), bits);
+            }
+        }
+        modified = false;
+    }
+
+    /**
+     * Writes every cached glyph to the given file, replacing it.
+     *
+     * @param file The cache file.
+     * @throws IOException if the file cannot be written.
+     */
+    public void save(Path file) throws IOException {
+        Map<GlyphKey, long[]> snapshot = Map.copyOf(glyphs);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<GlyphKey, long[]> entry : snapshot.entrySet()) {
+                GlyphKey key = entry.getKey();
+                out.writeUTF(key.fontName);
+                out.writeInt(key.pixelResolution);
+                out.writeChar(key.c);
+                out.writeInt(entry.getValue().length);
+                for (long word : entry.getValue()) {
+                    out.writeLong(word);
+                }
+            }
+        }
+        modified = false;
+    }
+
+    /**
+     * Packs a square boolean array row by row into longs, true values as set bits.
+     *
+     * @param matrix The array to pack.
+     * @return The packed bits.
+     */
+    public static long[] pack(boolean[][] matrix) {
+        int size = matrix.length * matrix[0].length;
+        long[] bits = new long[(size + Long.SIZE - 1) / Long.SIZE];
+        int index = 0;
+        for (boolean[] row : matrix) {
+            for (boolean value : row) {
+                if (value) {
+                    bits[index / Long.SIZE] |= 1L << (index % Long.SIZE);
+                }
+                index++;
+            }
+        }
+        return bits;
+    }
+
+    private static class GlyphKey {
+        private final String fontName;
+        private final int pixelResolution;
+        private final char c;
+
+        GlyphKey(String fontName, int pixelResolution, char c) {
+            this.fontName = fontName;
+            this.pixelResolution = pixelResolution;
+            this.c = c;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof GlyphKey)) {
+                return false;
+            }
+            GlyphKey key = (GlyphKey) other;
+            return c == key.c && pixelResolution == key.pixelResolution && fontName.equals(key.fontName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fontName, pixelResolution, c);
+        }
+    }
+}
@@ -1,22 +1,24 @@
 package image_char_matching;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Map.Entry;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
 /**
  * This class provides functionality to match characters to image brightness
  * levels.
+ * The matcher is the editable charset: every change replaces its compiled
+ * {@link CharMatcherSnapshot} with a new one, compiled on the next match and published
+ * atomically, so renders that hold a snapshot keep matching with it lock-free while the
+ * charset is edited. Characters can also be matched by shape: the bitmap of an image square is
+ * compared to the glyph bitmap of every character of about the same brightness, and the
+ * character that differs from it in the fewest pixels wins.
  */
 public class SubImgCharMatcher {
     private final TreeMap<Character, Double> charsBrightnessMap;
     private final TreeMap<Double, TreeSet<Character>> brightnessMap;
-    private final TreeMap<Double, TreeSet<Character>> normalizedBrightnessMap;
-
-    private double minBrightness;
-    private double maxBrightness;
-    private boolean shouldNormalizeMap;
+    private volatile CharMatcherSnapshot snapshot;
 
     /**
      * Constructs a SubImgCharMatcher object with the given character set.
@@ -26,7 +28,7 @@ public class SubImgCharMatcher {
     public SubImgCharMatcher(char[] charset) {
         charsBrightnessMap = new TreeMap<>();
         brightnessMap = new TreeMap<>();
-        normalizedBrightnessMap = new TreeMap<>();
+        GlyphCache.getInstance().renderGlyphs(charset);
         for (char character : charset) {
             double charBrightness = calculateCharBrightness(character);
             charsBrightnessMap.put(character, charBrightness);
@@ -35,7 +37,19 @@ public class SubImgCharMatcher {
             }
             brightnessMap.get(charBrightness).add(character);
         }
-        shouldNormalizeMap = true;
+    }
+
+    /**
+     * Returns the compiled current charset. The snapshot never changes, a render that matches
+     * all its cells with one snapshot is consistent however the charset changes meanwhile.
+     * A new snapshot is only compiled after the charset changed.
+     *
+     * @return The snapshot of the current charset.
+     * @throws java.util.NoSuchElementException if the charset is empty.
+     */
+    public CharMatcherSnapshot getSnapshot() {
+        CharMatcherSnapshot current = snapshot;
+        return current != null ? current : compileSnapshot();
     }
 
     /**
@@ -45,14 +59,21 @@ public class SubImgCharMatcher {
      * @return The character matching the provided brightness.
      */
     public char getCharByImageBrightness(double brightness) {
-        if (shouldNormalizeMap)
-            normalizeBrightnessMap();
+        return getSnapshot().getCharByImageBrightness(brightness);
+    }
 
-        Entry<Double, TreeSet<Character>> floorEntry = normalizedBrightnessMap.floorEntry(brightness);
-        Entry<Double, TreeSet<Character>> ceilingEntry = normalizedBrightnessMap.ceilingEntry(brightness);
-        return Math.abs(floorEntry.getKey() - brightness) <= Math.abs(ceilingEntry.getKey() - brightness)
-                ? floorEntry.getValue().first()
-                : ceilingEntry.getValue().first();
+    /**
+     * Gets the character whose glyph looks most like the given square of an image, see
+     * {@link CharMatcherSnapshot#getCharByImageShape(double, long[], double)}.
+     *
+     * @param brightness The brightness of the square.
+     * @param bitmap     The bitmap of the square, at the resolution and bit layout of
+     *                   {@link GlyphCache#getGlyphBits(char)}.
+     * @param contrast   The contrast of the square.
+     * @return The character matching the provided square.
+     */
+    public char getCharByImageShape(double brightness, long[] bitmap, double contrast) {
+        return getSnapshot().getCharByImageShape(brightness, bitmap, contrast);
     }
 
     /**
@@ -60,7 +81,7 @@ public class SubImgCharMatcher {
      * 
      * @param c The character to be added.
      */
-    public void addChar(char c) {
+    public synchronized void addChar(char c) {
         if (charsBrightnessMap.get(c) != null)
             return;
         double charBrightness = calculateCharBrightness(c);
@@ -69,8 +90,18 @@ public class SubImgCharMatcher {
             brightnessMap.put(charBrightness, new TreeSet<>(){});
         }
         brightnessMap.get(charBrightness).add(c);
-        if (charBrightness < minBrightness || charBrightness > maxBrightness) {
-            shouldNormalizeMap = true;
+        snapshot = null;
+    }
+
+    /**
+     * Adds several characters to the character set, rendering all the new glyphs in one batch.
+     * 
+     * @param chars The characters to be added.
+     */
+    public synchronized void addChars(char[] chars) {
+        GlyphCache.getInstance().renderGlyphs(chars);
+        for (char c : chars) {
+            addChar(c);
         }
     }
 
@@ -79,7 +110,7 @@ public class SubImgCharMatcher {
      * 
      * @param c The character to be removed.
      */
-    public void removeChar(char c) {
+    public synchronized void removeChar(char c) {
         if (charsBrightnessMap.get(c) == null)
             return;
         double charBrightness = charsBrightnessMap.get(c);
@@ -87,45 +118,28 @@ public class SubImgCharMatcher {
         brightnessMap.get(charBrightness).remove(c);
         if (brightnessMap.get(charBrightness).isEmpty())
             brightnessMap.remove(charBrightness);
-        shouldNormalizeMap = true;
+        snapshot = null;
     }
 
     /**
      * Retuen the charSet that will be used during the AsciiArt algo
      * @return
      */
-    public Collection<Character> getCharSet() {
-        return charsBrightnessMap.keySet();
+    public synchronized Collection<Character> getCharSet() {
+        return new ArrayList<>(charsBrightnessMap.keySet());
     }
 
     // Private methods
 
-    private void normalizeBrightnessMap() {
-        minBrightness = brightnessMap.firstKey();
-        maxBrightness = brightnessMap.lastKey();
-
-        normalizedBrightnessMap.clear();
-        for (Entry<Double, TreeSet<Character>> entry : brightnessMap.entrySet()) {
-            double normalizedVal = (entry.getKey() - minBrightness) / (maxBrightness - minBrightness);
-            normalizedBrightnessMap.put(normalizedVal, entry.getValue());
+    // Compiles the charset once per change, however many threads ask for it at the same time.
+    private synchronized CharMatcherSnapshot compileSnapshot() {
+        if (snapshot == null) {
+            snapshot = new CharMatcherSnapshot(brightnessMap);
         }
-
-        shouldNormalizeMap = false;
+        return snapshot;
     }
 
     private double calculateCharBrightness(char character) {
-        return calculateBrightnessFromBoolArray(CharConverter.convertToBoolArray(character));
-    }
-
-    private double calculateBrightnessFromBoolArray(boolean[][] charBoolArray) {
-        double trueCounter = 0;
-        int rows = charBoolArray.length;
-        int cols = charBoolArray[0].length;
-        for (int row = 0; row < rows; row++) {
-            for (int col = 0; col < cols; col++) {
-                trueCounter += charBoolArray[row][col] ? 1 : 0;
-            }
-        }
-        return trueCounter / (rows * cols);
+        return GlyphCache.getInstance().getGlyphBrightness(character);
     }
 }
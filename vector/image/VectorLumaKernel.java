@@ -0,0 +1,69 @@
+package image;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The luminance kernel on the incubating Vector API, giving the same results as the other
+ * {@link LumaKernel}s. Every step handles a vector of pixels at the platform's preferred width,
+ * and the pixels left over past the last full vector are handled one at a time.
+ * It is kept in its own source root, since it only compiles and runs with
+ * --add-modules jdk.incubator.vector, and LumaKernel loads it reflectively.
+ */
+final class VectorLumaKernel extends LumaKernel {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int RED_FACTOR = (int) ImageBrightnessIntegral.RED_FACTOR;
+    private static final int GREEN_FACTOR = (int) ImageBrightnessIntegral.GREEN_FACTOR;
+    private static final int BLUE_FACTOR = (int) ImageBrightnessIntegral.BLUE_FACTOR;
+    private static final int CHANNEL_MASK = 0xFF;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+    // the most white pixels whose luminance sum still fits in an int, in every lane and in total
+    private static final int BLOCK_SIZE = (int) (Integer.MAX_VALUE / ImageBrightnessIntegral.WHITE_LUMA);
+
+    @Override
+    void luma(int[] pixels, int from, int count, int[] lumas) {
+        int i = 0;
+        for (int upper = SPECIES.loopBound(count); i < upper; i += SPECIES.length()) {
+            luma(IntVector.fromArray(SPECIES, pixels, from + i)).intoArray(lumas, i);
+        }
+        for (; i < count; i++) {
+            lumas[i] = luma(pixels[from + i]);
+        }
+    }
+
+    @Override
+    long lumaSum(int[] pixels, int from, int count) {
+        long sum = 0;
+        int end = from + count;
+        for (int blockStart = from; blockStart < end; blockStart += BLOCK_SIZE) {
+            int blockEnd = Math.min(end, blockStart + BLOCK_SIZE);
+            IntVector blockSums = IntVector.zero(SPECIES);
+            int i = blockStart;
+            for (int upper = blockStart + SPECIES.loopBound(blockEnd - blockStart); i < upper;
+                    i += SPECIES.length()) {
+                blockSums = blockSums.add(luma(IntVector.fromArray(SPECIES, pixels, i)));
+            }
+            int blockSum = blockSums.reduceLanes(VectorOperators.ADD);
+            for (; i < blockEnd; i++) {
+                blockSum += luma(pixels[i]);
+            }
+            sum += blockSum;
+        }
+        return sum;
+    }
+
+    private static IntVector luma(IntVector rgb) {
+        IntVector red = rgb.lanewise(VectorOperators.LSHR, RED_SHIFT).and(CHANNEL_MASK);
+        IntVector green = rgb.lanewise(VectorOperators.LSHR, GREEN_SHIFT).and(CHANNEL_MASK);
+        IntVector blue = rgb.and(CHANNEL_MASK);
+        return red.mul(RED_FACTOR).add(green.mul(GREEN_FACTOR)).add(blue.mul(BLUE_FACTOR));
+    }
+
+    private static int luma(int rgb) {
+        return ((rgb >>> RED_SHIFT) & CHANNEL_MASK) * RED_FACTOR
+                + ((rgb >>> GREEN_SHIFT) & CHANNEL_MASK) * GREEN_FACTOR
+                + (rgb & CHANNEL_MASK) * BLUE_FACTOR;
+    }
+}